@@ -23,6 +23,7 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Client program for user to interact with the email system.
@@ -90,19 +91,16 @@ public class MessageClient implements IMessageClient, Runnable {
           .map(message -> message.substring(0, message.indexOf(" ")))
           .collect(Collectors.toList());
 
-      // Get message details (show) from DMAP Client
-      List<Message> messages = messageIds.stream().map(messageId -> {
-        Message message = new Message();
-        try {
-          message = extractMessage(client.show(messageId));
-          message.setId(messageId);
-        } catch (IOException e) {
-          //
-        }
-        return message;
-      }).collect(Collectors.toList());
+      // Get message details (show) from DMAP Client, the show requests are pipelined
+      List<String> shown = client.show(messageIds);
+      for (int i = 0; i < shown.size(); i++) {
+        // null if the message was deleted in the meantime
+        if (shown.get(i) == null) continue;
 
-      messages.forEach(message -> shell.out().println(message));
+        Message message = extractMessage(shown.get(i));
+        message.setId(messageIds.get(i));
+        shell.out().println(message);
+      }
 
     } catch (IOException e) {
       shell.err().println(e.getMessage());
@@ -157,21 +155,58 @@ public class MessageClient implements IMessageClient, Runnable {
   public void verify(String messageId) {
     try {
       String message = client.show(messageId);
-      Message msg = extractMessage(message);
-      if (msg.getHash() != null) {
-        shell.out().println(
-            hasher.verify(msg)
-            ? "ok"
-            : "error");
-
-      } else {
-        shell.out().println("error sender did not specify a hash");
+      shell.out().println(verifyMessage(message));
+    } catch (IOException | DMAPErrorException e) {
+      shell.err().println(e.getMessage());
+    }
+  }
+
+  /**
+   * Verifies the hashes of all messages in the logged-in user's mailbox. The messages are fetched with pipelined
+   * show requests and their hashes are checked in parallel.
+   */
+  @Command(name = "verify-all")
+  public void verifyAll() {
+    try {
+      long start = System.nanoTime();
+
+      List<String> messageList = client.list();
+      if (messageList.size() == 1 && Objects.equals(messageList.get(0), "You have no messages.")) {
+        shell.out().println(messageList.get(0));
+        return;
+      }
+
+      List<String> messageIds = messageList.stream()
+          .map(message -> message.substring(0, message.indexOf(" ")))
+          .collect(Collectors.toList());
+      List<String> messages = client.show(messageIds);
+      long fetched = System.nanoTime();
+
+      // the hashing is cpu bound, the messages are verified on the common fork join pool
+      String[] results = new String[messages.size()];
+      IntStream.range(0, messages.size()).parallel().forEach(i ->
+          results[i] = messages.get(i) == null ? "error unknown message id" : verifyMessage(messages.get(i)));
+      long verified = System.nanoTime();
+
+      int ok = 0;
+      for (int i = 0; i < results.length; i++) {
+        shell.out().println(messageIds.get(i) + " " + results[i]);
+        if (results[i].equals("ok")) ok++;
       }
+      shell.out().printf("%d of %d messages ok, fetched in %d ms, verified in %d ms%n",
+          ok, results.length, (fetched - start) / 1_000_000, (verified - fetched) / 1_000_000);
     } catch (IOException e) {
       shell.err().println(e.getMessage());
     }
   }
 
+  private String verifyMessage(String message) {
+    Message msg = extractMessage(message);
+    if (msg.getHash() == null) return "error sender did not specify a hash";
+
+    return hasher.verify(msg) ? "ok" : "error";
+  }
+
   /**
    * Sends a message to someone
    *
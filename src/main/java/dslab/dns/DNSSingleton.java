@@ -2,11 +2,14 @@ package dslab.dns;
 
 import dslab.entity.Domain;
 import dslab.nameserver.INameserverRemote;
+import dslab.util.ResolverCache;
 
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.rmi.ServerException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.Arrays;
 
 public class DNSSingleton {
     private static volatile DNSSingleton INSTANCE;
@@ -16,6 +19,15 @@ public class DNSSingleton {
     private String rootId;
     private INameserverRemote rootNameserverRemote;
 
+    // resolved mail domains, a negative entry means the domain does not exist
+    private ResolverCache<Domain> domainCache = new ResolverCache<>(1024);
+    // remote objects of zone nameservers, e.g. "earth.planet" -> nameserver of zone earth.planet
+    private ResolverCache<INameserverRemote> zoneCache = new ResolverCache<>(1024);
+    private long positiveTtlMillis = 60000;
+    private long negativeTtlMillis = 5000;
+    // let the root nameserver resolve the whole domain in a single call instead of walking the zones here
+    private boolean recursive = false;
+
     private DNSSingleton() {}
 
     public static synchronized DNSSingleton getInstance() {
@@ -25,26 +37,39 @@ public class DNSSingleton {
     }
 
     public Domain lookupDomain(String domain) throws DomainNotFoundException {
-        // if rootNameserverRemote has not been fetched yet get it
-        if (rootNameserverRemote == null) {
-            try {
-                Registry registry = LocateRegistry.getRegistry(registryHost, registryPort);
-                rootNameserverRemote = (INameserverRemote) registry.lookup(rootId);
-            } catch (RemoteException e) {
-                throw new RuntimeException("Error while obtaining registry/server-remote-object.", e);
-            } catch (NotBoundException e) {
-                throw new RuntimeException("Error while looking for server-remote-object.", e);
-            }
+        ResolverCache.Entry<Domain> cached = domainCache.get(domain);
+        if (cached != null) {
+            if (cached.isNegative()) throw new DomainNotFoundException("Domain " + domain + " not found!");
+            return cached.getValue();
         }
 
+        if (recursive) return resolveRecursive(domain);
+
         String[] domainParts = domain.split("\\.");
-        INameserverRemote nameServerRemote = rootNameserverRemote;
+        INameserverRemote nameServerRemote = getRootNameserverRemote();
 
-        // iteratively get nameserverRemotes
-        for (int i = domainParts.length - 1; i > 0; i--) {
+        // iteratively get nameserverRemotes, starting with the longest zone that is already cached
+        int i = domainParts.length - 1;
+        for (int j = 1; j < domainParts.length; j++) {
+            ResolverCache.Entry<INameserverRemote> zone = zoneCache.get(zoneName(domainParts, j));
+            if (zone != null && !zone.isNegative()) {
+                nameServerRemote = zone.getValue();
+                i = j - 1;
+                break;
+            }
+        }
+
+        for (; i > 0; i--) {
             try {
                 nameServerRemote = nameServerRemote.getNameserver(domainParts[i]);
+                zoneCache.put(zoneName(domainParts, i), nameServerRemote, positiveTtlMillis);
+            } catch (ServerException e) {
+                // the nameserver itself answered that there is no such zone
+                domainCache.put(domain, null, negativeTtlMillis);
+                throw new DomainNotFoundException("Domain " + domain + " not found!");
             } catch (RemoteException e) {
+                // cached zone nameservers might have gone away, resolve them again next time
+                zoneCache.clear();
                 throw new RuntimeException("Error while getting remote nameserver" + e);
             }
         }
@@ -53,16 +78,95 @@ public class DNSSingleton {
             String address = nameServerRemote.lookup(domainParts[0]);
             String[] addressParts = address.split(":");
 
-            return new Domain(domain, addressParts[0], Integer.parseInt(addressParts[1]));
+            Domain result = new Domain(domain, addressParts[0], Integer.parseInt(addressParts[1]));
+            domainCache.put(domain, result, positiveTtlMillis);
+            return result;
 
+        } catch (ServerException e) {
+            domainCache.put(domain, null, negativeTtlMillis);
+            throw new DomainNotFoundException("Domain " + domain + " not found!");
         } catch (RemoteException e) {
+            zoneCache.clear();
             throw new RuntimeException("Error while looking up address on namerserveremote" + e);
         }
     }
 
-    public void setup(String registryHost, int registryPort, String rootId) {
+    private Domain resolveRecursive(String domain) throws DomainNotFoundException {
+        String address;
+        try {
+            address = getRootNameserverRemote().resolve(domain);
+        } catch (RemoteException e) {
+            throw new RuntimeException("Error while resolving domain on root nameserver" + e);
+        }
+
+        if (address == null) {
+            domainCache.put(domain, null, negativeTtlMillis);
+            throw new DomainNotFoundException("Domain " + domain + " not found!");
+        }
+
+        String[] addressParts = address.split(":");
+        Domain result = new Domain(domain, addressParts[0], Integer.parseInt(addressParts[1]));
+        domainCache.put(domain, result, positiveTtlMillis);
+        return result;
+    }
+
+    public synchronized void setup(String registryHost, int registryPort, String rootId) {
         this.registryHost = registryHost;
         this.registryPort = registryPort;
         this.rootId = rootId;
+
+        // the root nameserver of a previous setup is looked up again
+        this.rootNameserverRemote = null;
+    }
+
+    /**
+     * Configures the resolver cache, a ttl of 0 disables caching of the respective entries.
+     *
+     * @param maxSize           maximum number of cached domains and zones (each)
+     * @param positiveTtlMillis time to live of resolved domains and zone nameservers
+     * @param negativeTtlMillis time to live of domains that could not be found
+     */
+    public void setupCache(int maxSize, long positiveTtlMillis, long negativeTtlMillis) {
+        this.domainCache = new ResolverCache<>(maxSize);
+        this.zoneCache = new ResolverCache<>(maxSize);
+        this.positiveTtlMillis = positiveTtlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    public void setRecursive(boolean recursive) {
+        this.recursive = recursive;
+    }
+
+    public long getCacheHits() {
+        return domainCache.getHits();
+    }
+
+    public long getCacheMisses() {
+        return domainCache.getMisses();
+    }
+
+    public int getCacheSize() {
+        return domainCache.size();
+    }
+
+    private synchronized INameserverRemote getRootNameserverRemote() {
+        // if rootNameserverRemote has not been fetched yet get it
+        if (rootNameserverRemote == null) {
+            try {
+                Registry registry = LocateRegistry.getRegistry(registryHost, registryPort);
+                rootNameserverRemote = (INameserverRemote) registry.lookup(rootId);
+            } catch (RemoteException e) {
+                throw new RuntimeException("Error while obtaining registry/server-remote-object.", e);
+            } catch (NotBoundException e) {
+                throw new RuntimeException("Error while looking for server-remote-object.", e);
+            }
+        }
+
+        return rootNameserverRemote;
+    }
+
+    // zone of the domain parts from index "from" to the end, e.g. ["vienna", "earth", "planet"], 1 -> "earth.planet"
+    private static String zoneName(String[] domainParts, int from) {
+        return String.join(".", Arrays.copyOfRange(domainParts, from, domainParts.length));
     }
 }
@@ -1,78 +1,102 @@
 package dslab.encryption;
 
 import javax.crypto.Cipher;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
 
 /**
- * This class is used for encrypting and decrypting data using the "AES" algorithm.
+ * This class is used for encrypting and decrypting the messages of a secure connection using the "AES" algorithm
+ * in counter mode (CTR).
+ * The ciphers are initialized once per connection and keep their key stream for its whole lifetime, one stream for
+ * each direction. Both sides therefore have to encrypt and decrypt exactly the messages they send and receive, in the
+ * order they are sent and received.
  */
 public class AES {
 
-    // Holds the shared secret for the client server communication (must be kept secret at any time)
-    private final SecretKey secretKey;
+    // Encrypts the messages this side sends
+    private final Cipher encryptCipher;
 
-    // Holds the initialization vector (IV) for the client server communication and is used to increase the cryptographic variance for increased security
-    private final IvParameterSpec iv;
-
-    // Holds the cipher for encrypting / decrypting data
-    private final Cipher cipher;
+    // Decrypts the messages the other side sends
+    private final Cipher decryptCipher;
 
     /**
-     * Creates a new AES instance for encrypting or decrypting data using the "AES" algorithm.
-     * The given secretKey and iv are used for init the cipher and further for encryption/decryption.
+     * Creates a new AES instance for a secure connection using the "AES" algorithm.
      * The secretKey and iv are transmitted initially between the client and the server via the "RSA" algorithm.
+     * The client to server stream starts at the given iv, the server to client stream at the iv with its highest bit
+     * flipped, so the two directions never share key stream.
      *
      * @param secretKey The shared secret for the client server communication (must be kept secret at any time)
      * @param iv        The initialization vector (IV) for the client server communication and is used to increase the cryptographic variance for increased security
+     * @param mode      The side of the connection this instance is used on
      */
-    public AES(byte[] secretKey, byte[] iv) {
+    public AES(byte[] secretKey, byte[] iv, AESMode mode) {
 
         // Create a SecretKey instance from the secret key bytes for the "AES" algorithm (symmetric encryption)
-        this.secretKey = new SecretKeySpec(secretKey, "AES");
-        // Create an initialization vector instance for the "AES" algorithm
-        this.iv = new IvParameterSpec(iv);
+        SecretKey key = new SecretKeySpec(secretKey, "AES");
+
+        byte[] serverIv = iv.clone();
+        serverIv[0] ^= (byte) 0x80;
+        IvParameterSpec clientStream = new IvParameterSpec(iv);
+        IvParameterSpec serverStream = new IvParameterSpec(serverIv);
 
-        // Initialize the cipher for encrypting / decrypting data
+        // Initialize the ciphers once, every update continues the key stream where the last one stopped
         try {
-            this.cipher = Cipher.getInstance("AES/CTR/NoPadding");
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+            this.encryptCipher = Cipher.getInstance("AES/CTR/NoPadding");
+            this.decryptCipher = Cipher.getInstance("AES/CTR/NoPadding");
+            this.encryptCipher.init(Cipher.ENCRYPT_MODE, key, mode == AESMode.CLIENT ? clientStream : serverStream);
+            this.decryptCipher.init(Cipher.DECRYPT_MODE, key, mode == AESMode.CLIENT ? serverStream : clientStream);
+        } catch (GeneralSecurityException e) {
             throw new RuntimeException(e);
         }
     }
 
     /**
-     * Encrypts the given data using the "AES" algorithm.
+     * Encrypts the given data in place using the "AES" algorithm.
      *
-     * @param data The data to encrypt
-     * @return The encrypted data
+     * @param data The data to encrypt, it is overwritten with the encrypted data
+     * @return The encrypted data, i.e. the given array
      */
     public byte[] encrypt(byte[] data) {
+        encrypt(data, 0, data.length, data, 0);
+        return data;
+    }
+
+    /**
+     * Encrypts a part of the input into the given output buffer, which may be the input buffer itself.
+     *
+     * @return The number of bytes written to the output, always the given length
+     */
+    public int encrypt(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
         try {
-            this.cipher.init(Cipher.ENCRYPT_MODE, this.secretKey, this.iv);
-            // Encrypt the data using the cipher
-            return this.cipher.doFinal(data);
-        } catch (Exception e) {
+            return this.encryptCipher.update(input, inputOffset, length, output, outputOffset);
+        } catch (ShortBufferException e) {
             throw new RuntimeException(e);
         }
     }
 
     /**
-     * Decrypts the given data using the "AES" algorithm.
+     * Decrypts the given data in place using the "AES" algorithm.
      *
-     * @param data The data to decrypt
-     * @return The decrypted data
+     * @param data The data to decrypt, it is overwritten with the decrypted data
+     * @return The decrypted data, i.e. the given array
      */
     public byte[] decrypt(byte[] data) {
+        decrypt(data, 0, data.length, data, 0);
+        return data;
+    }
+
+    /**
+     * Decrypts a part of the input into the given output buffer, which may be the input buffer itself.
+     *
+     * @return The number of bytes written to the output, always the given length
+     */
+    public int decrypt(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) {
         try {
-            this.cipher.init(Cipher.DECRYPT_MODE, this.secretKey, this.iv);
-            // Decrypt the data using the cipher
-            return this.cipher.doFinal(data);
-        } catch (Exception e) {
-            System.out.println(e.getMessage());
+            return this.decryptCipher.update(input, inputOffset, length, output, outputOffset);
+        } catch (ShortBufferException e) {
             throw new RuntimeException(e);
         }
     }
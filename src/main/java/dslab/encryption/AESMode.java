@@ -1,9 +1,9 @@
 package dslab.encryption;
 
 public enum AESMode {
-    // Used to encrypt data
-    ENCRYPT,
+    // Used by the client, it sends with the client stream and receives with the server stream
+    CLIENT,
 
-    // Used to decrypt data
-    DECRYPT
+    // Used by the server, it sends with the server stream and receives with the client stream
+    SERVER
 }
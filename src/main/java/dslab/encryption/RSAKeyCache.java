@@ -0,0 +1,111 @@
+package dslab.encryption;
+
+import javax.crypto.Cipher;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the RSA keys of the components, every key file is read and parsed only once per process.
+ * The ciphers initialized with the keys are kept per thread, since a cipher must not be used concurrently.
+ */
+public class RSAKeyCache {
+    private static volatile RSAKeyCache INSTANCE;
+
+    // e.g. "SERVER_DECRYPT_PRIVATE_KEY mailbox-earth-planet" -> private key of mailbox-earth-planet
+    private final ConcurrentHashMap<String, Key> keys = new ConcurrentHashMap<>();
+
+    // initialized ciphers of the current thread, with the same keys as the key map
+    private final ThreadLocal<Map<String, Cipher>> ciphers = ThreadLocal.withInitial(HashMap::new);
+
+    private RSAKeyCache() {}
+
+    public static synchronized RSAKeyCache getInstance() {
+        if (INSTANCE == null) INSTANCE = new RSAKeyCache();
+
+        return INSTANCE;
+    }
+
+    /**
+     * Loads the key of the component, so the first handshake does not have to read it from the file system.
+     *
+     * @param componentId the id of the component the key belongs to
+     * @param mode        selects the public (client) or private (server) key
+     */
+    public void preload(String componentId, RSAMode mode) {
+        getKey(componentId, mode);
+    }
+
+    public Key getKey(String componentId, RSAMode mode) {
+        return keys.computeIfAbsent(cacheKey(componentId, mode), k -> loadKey(componentId, mode));
+    }
+
+    /**
+     * @return a cipher of the current thread, initialized with the key of the component for the given mode
+     */
+    public Cipher getCipher(String componentId, RSAMode mode) {
+        String cacheKey = cacheKey(componentId, mode);
+        Map<String, Cipher> threadCiphers = ciphers.get();
+
+        Cipher cipher = threadCiphers.get(cacheKey);
+        if (cipher == null) {
+            try {
+                cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+                cipher.init(mode == RSAMode.CLIENT_ENCRYPT_PUBLIC_KEY ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE, getKey(componentId, mode));
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+            threadCiphers.put(cacheKey, cipher);
+        }
+
+        return cipher;
+    }
+
+    // drops the loaded keys and the ciphers of the current thread, e.g. to measure handshakes with a cold cache
+    void clear() {
+        keys.clear();
+        ciphers.remove();
+    }
+
+    private static String cacheKey(String componentId, RSAMode mode) {
+        return mode + " " + componentId;
+    }
+
+    private static Key loadKey(String componentId, RSAMode mode) {
+        byte[] key;
+
+        // Read in the public/private key from the file
+        String fileName = mode == RSAMode.CLIENT_ENCRYPT_PUBLIC_KEY
+                ? String.format("keys/client/%s_pub.der", componentId)
+                : String.format("keys/server/%s.der", componentId);
+        try (FileInputStream fis = new FileInputStream(fileName)) {
+            key = fis.readAllBytes();
+        } catch (FileNotFoundException e) {
+            // If the file name is not found
+            throw new RuntimeException("Could not find the key file", e);
+        } catch (IOException e) {
+            // If the file is not readable, or if an I/O error occurs ...
+            throw new RuntimeException("Could not read the key file", e);
+        }
+
+        try {
+            KeyFactory kf = KeyFactory.getInstance("RSA");
+            if (mode == RSAMode.CLIENT_ENCRYPT_PUBLIC_KEY) {
+                return kf.generatePublic(new X509EncodedKeySpec(key));
+            } else {
+                return kf.generatePrivate(new PKCS8EncodedKeySpec(key));
+            }
+        } catch (GeneralSecurityException e) {
+            System.out.println(e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -9,6 +9,8 @@ import dslab.util.WrappedSocket;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class AcceptMessageRunnable implements Runnable {
@@ -57,18 +59,25 @@ public class AcceptMessageRunnable implements Runnable {
                         // message fully received, store in local data structure
                         Message message = protocol.getMessage();
 
+                        List<String> userNames = new ArrayList<>();
                         for (String recipient : message.getRecipients()) {
                             if (isUserFromThisDomainValidator.isValidForThisDomain(recipient)) {
-                                String userName = recipient.substring(0, recipient.length() - (domain.length() + 1));
-                                MessageStorageSingleton.getInstance().storeMessage(userName, message);
+                                userNames.add(recipient.substring(0, recipient.length() - (domain.length() + 1)));
                             }
                         }
+                        // the message is stored once and shared by all local recipients
+                        if (!userNames.isEmpty()) MessageStorageSingleton.getInstance().storeMessage(userNames, message);
                     }
 
-                    socket.write(output);
+                    // responses to pipelined commands are flushed together
+                    socket.writeBatched(output);
 
                 } catch (DMTPErrorException e) {
-                    socket.write(e.getMessage());
+                    socket.writeBatched(e.getMessage());
+                } catch (StorageException e) {
+                    // the message is not acknowledged, so the transfer server reports it as not deliverable
+                    System.out.println(e.getMessage() + ": " + e.getCause());
+                    socket.writeBatched("error message could not be stored");
                 } catch (DMTPTerminateConnectionException e) {
                     socket.write(e.getMessage());
                     close();
@@ -1,6 +1,7 @@
 package dslab.mailbox;
 
 import dslab.protocol.dmap.DMAP;
+import dslab.protocol.dmap.DMAPResponseWriter;
 import dslab.protocol.dmap.exception.DMAPErrorException;
 import dslab.protocol.dmap.exception.DMAPTerminateConnectionException;
 import dslab.util.Config;
@@ -34,17 +35,18 @@ public class AcceptUserRunnable implements Runnable {
         // init dmtp and print first message
         // validate that recipient mail ends with domain name of this server and that user exists in server
         DMAP protocol = new DMAP(componentId);
+        DMAPResponseWriter out = new DMAPResponseWriter(socket);
 
-        socket.write(protocol.processInput(null));
+        socket.write(protocol.processInput(null, out));
 
         try {
             while (!socket.isClosed() && (input = socket.read()) != null) {
 
                 try {
-                    String output = protocol.processInput(input);
+                    String output = protocol.processInput(input, out);
 
-                    // Only write to client when output is not null
-                    if (output != null) socket.write(output);
+                    // Only write to client when output is not null, responses to pipelined commands are sent together
+                    if (output != null) socket.writeBatched(output);
 
                 } catch (DMAPErrorException e) {
                     socket.write(e.getMessage());
@@ -2,6 +2,7 @@ package dslab.mailbox;
 
 import at.ac.tuwien.dsg.orvell.Shell;
 import dslab.util.Config;
+import dslab.util.ExecutorFactory;
 
 import java.io.IOException;
 import java.net.ServerSocket;
@@ -9,7 +10,7 @@ import java.net.Socket;
 import java.net.SocketException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class DMTPListenerThread extends Thread {
@@ -28,7 +29,7 @@ public class DMTPListenerThread extends Thread {
         this.shell = shell;
         this.stopFlag = new AtomicBoolean(false);
 
-        this.acceptMessageThreadPool = Executors.newCachedThreadPool();
+        this.acceptMessageThreadPool = ExecutorFactory.newConnectionExecutor(config);
         this.runningAcceptMessageTasks = new ConcurrentHashMap<>();
     }
 
@@ -47,7 +48,12 @@ public class DMTPListenerThread extends Thread {
                     clientSocket = serverSocket.accept();
 
                     AcceptMessageRunnable worker = new AcceptMessageRunnable(clientSocket, runningAcceptMessageTasks, config.getString("domain"));
-                    acceptMessageThreadPool.submit(worker);
+                    try {
+                        acceptMessageThreadPool.submit(worker);
+                    } catch (RejectedExecutionException e) {
+                        // all connection threads are busy (executor.mode=bounded), close instead of letting it wait
+                        worker.close();
+                    }
 
                 } catch (SocketException e) {
                     // this exception will occur when closing socket because of server shutdown
@@ -0,0 +1,187 @@
+package dslab.mailbox;
+
+import dslab.entity.Message;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Default store, every inbox is a concurrent map of its own so operations on different users never contend and
+ * listing never blocks a store or delete. Changes to an inbox update both of its indexes under the lock of the inbox,
+ * so a reader never finds a message in one index that is missing in the other for longer than the change takes. The
+ * inboxes only hold a {@link MessageRef} per message, the body of a message with several local recipients exists once
+ * and is garbage collected after the last recipient deleted it.
+ */
+class HeapMessageStore implements MessageStore {
+
+    private final ConcurrentMap<String, Inbox> inboxes = new ConcurrentHashMap<>();
+    private final AtomicLong nextSeq = new AtomicLong();
+
+    @Override
+    public List<String> add(List<String> users, Message message, Supplier<String> ids) {
+        MessageBody body = new MessageBody(message);
+        List<String> added = new ArrayList<>(users.size());
+
+        for (String user : users) {
+            Inbox inbox = inbox(user);
+
+            synchronized (inbox) {
+                // the lock makes the check and the insert into both indexes a single step
+                String id;
+                do {
+                    id = ids.get();
+                } while (inbox.byId.containsKey(id));
+
+                inbox.add(new MessageRef(id, body, nextSeq.incrementAndGet()));
+                added.add(id);
+            }
+        }
+
+        return added;
+    }
+
+    @Override
+    public void put(List<String> users, List<String> ids, Message message) {
+        MessageBody body = new MessageBody(message);
+
+        for (int i = 0; i < users.size(); i++) {
+            Inbox inbox = inbox(users.get(i));
+
+            synchronized (inbox) {
+                inbox.add(new MessageRef(ids.get(i), body, nextSeq.incrementAndGet()));
+            }
+        }
+    }
+
+    @Override
+    public List<Message> list(String user) {
+        return list(user, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Message> list(String user, int offset, int limit) {
+        Inbox inbox = inboxes.get(user);
+        if (inbox == null) return new ArrayList<>();
+
+        // weakly consistent iteration in arrival order, concurrent changes do not throw
+        // ConcurrentModificationException; only the requested window is copied
+        List<Message> list = new ArrayList<>(Math.min(limit, inbox.bySeq.size()));
+        Iterator<MessageRef> refs = inbox.bySeq.values().iterator();
+        for (int i = 0; i < offset && refs.hasNext(); i++) refs.next();
+        while (refs.hasNext() && list.size() < limit) list.add(refs.next().toMessage());
+        return list;
+    }
+
+    @Override
+    public Iterator<Message> iterator(String user, int offset) {
+        Inbox inbox = inboxes.get(user);
+        if (inbox == null) return Collections.emptyIterator();
+
+        Iterator<MessageRef> refs = inbox.bySeq.values().iterator();
+        for (int i = 0; i < offset && refs.hasNext(); i++) refs.next();
+        return new Iterator<Message>() {
+            @Override
+            public boolean hasNext() {
+                return refs.hasNext();
+            }
+
+            @Override
+            public Message next() {
+                return refs.next().toMessage();
+            }
+        };
+    }
+
+    @Override
+    public Message get(String user, String id) {
+        // no user is logged in, the concurrent map does not take null keys
+        if (user == null) return null;
+
+        Inbox inbox = inboxes.get(user);
+        MessageRef ref = inbox == null ? null : inbox.byId.get(id);
+
+        return ref == null ? null : ref.toMessage();
+    }
+
+    @Override
+    public boolean remove(String user, String id) {
+        if (user == null) return false;
+
+        Inbox inbox = inboxes.get(user);
+        if (inbox == null) return false;
+
+        synchronized (inbox) {
+            MessageRef ref = inbox.byId.remove(id);
+            if (ref == null) return false;
+
+            inbox.bySeq.remove(ref.getSeq());
+            return true;
+        }
+    }
+
+    @Override
+    public Map<String, Collection<Message>> snapshot() {
+        Map<String, Collection<Message>> snapshot = new HashMap<>();
+        for (Map.Entry<String, Inbox> inbox : inboxes.entrySet()) {
+            Collection<MessageRef> refs = inbox.getValue().bySeq.values();
+
+            snapshot.put(inbox.getKey(), new AbstractCollection<Message>() {
+                @Override
+                public Iterator<Message> iterator() {
+                    Iterator<MessageRef> iterator = refs.iterator();
+                    return new Iterator<Message>() {
+                        @Override
+                        public boolean hasNext() {
+                            return iterator.hasNext();
+                        }
+
+                        @Override
+                        public Message next() {
+                            return iterator.next().toMessage();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return refs.size();
+                }
+            });
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    private Inbox inbox(String user) {
+        return inboxes.computeIfAbsent(user, u -> new Inbox());
+    }
+
+    // messages of a user by id for show and delete, and by arrival for list;
+    // readers need no lock, writers lock the inbox
+    private static class Inbox {
+        private final ConcurrentMap<String, MessageRef> byId = new ConcurrentHashMap<>();
+        private final ConcurrentSkipListMap<Long, MessageRef> bySeq = new ConcurrentSkipListMap<>();
+
+        // adds the message to both indexes, replacing a message with the same id; has to be called holding the lock
+        private void add(MessageRef ref) {
+            MessageRef replaced = byId.put(ref.getId(), ref);
+            if (replaced != null) bySeq.remove(replaced.getSeq());
+            bySeq.put(ref.getSeq(), ref);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package dslab.mailbox;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Forces the records of a {@link MessageLog} to disk, either as soon as a writer waits for them or after the given
+ * interval at the latest.
+ */
+public class LogSyncThread extends Thread {
+
+    private final MessageLog log;
+    private final long intervalMillis;
+    private final AtomicBoolean stopFlag;
+
+    public LogSyncThread(MessageLog log, long intervalMillis) {
+        super("message-log-sync");
+        setDaemon(true);
+
+        this.log = log;
+        this.intervalMillis = intervalMillis;
+        this.stopFlag = new AtomicBoolean(false);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopFlag.get()) {
+                log.awaitPending(intervalMillis);
+                try {
+                    log.sync();
+                } catch (IOException e) {
+                    System.out.println("Error while syncing message log: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            // this will be reached when the thread gets interrupted on shutdown
+        }
+    }
+
+    public void shutdown() {
+        stopFlag.set(true);
+        interrupt();
+    }
+}
@@ -4,6 +4,8 @@ import at.ac.tuwien.dsg.orvell.Shell;
 import at.ac.tuwien.dsg.orvell.StopShellException;
 import at.ac.tuwien.dsg.orvell.annotation.Command;
 import dslab.ComponentFactory;
+import dslab.encryption.RSAKeyCache;
+import dslab.encryption.RSAMode;
 import dslab.nameserver.AlreadyRegisteredException;
 import dslab.nameserver.INameserverRemote;
 import dslab.nameserver.InvalidDomainException;
@@ -72,6 +74,16 @@ public class MailboxServer implements IMailboxServer, Runnable {
         String userConfigName = config.getString("users.config");
         UserStorageSingleton.getInstance().parseUsersFromFile(userConfigName.substring(0, userConfigName.length() - ".properties".length())); // cut .properties from filename
 
+        // restore messages from the message log, if persistence is enabled
+        MessageStorageSingleton.getInstance().setup(config);
+
+        // load the private key now instead of on the first startsecure
+        try {
+            RSAKeyCache.getInstance().preload(componentId, RSAMode.SERVER_DECRYPT_PRIVATE_KEY);
+        } catch (RuntimeException e) {
+            shell.err().println("Could not load private key of " + componentId + ": " + e.getMessage());
+        }
+
         dmtpListenerThread = new DMTPListenerThread(config, shell);
         dmtpListenerThread.start();
 
@@ -81,6 +93,12 @@ public class MailboxServer implements IMailboxServer, Runnable {
         shell.run();
     }
 
+    @Command
+    public void compact() {
+        MessageStorageSingleton.getInstance().compact();
+        shell.out().println("Message log compacted");
+    }
+
     @Override
     @Command
     public void shutdown() {
@@ -89,6 +107,9 @@ public class MailboxServer implements IMailboxServer, Runnable {
         dmtpListenerThread.shutdown();
         dmapListenerThread.shutdown();
 
+        // sync and close the message log
+        MessageStorageSingleton.getInstance().shutdown();
+
         throw new StopShellException();
     }
 
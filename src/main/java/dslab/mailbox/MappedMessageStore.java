@@ -0,0 +1,670 @@
+package dslab.mailbox;
+
+import dslab.entity.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Store that keeps messages out of the heap. Every stored message is written once into a memory-mapped segment file,
+ * messages are only decoded into {@link Message} objects while a DMAP command needs them.
+ * <p>
+ * There are two kinds of segments. Body segments hold the content of the messages as
+ * {@code [int length][int references][message]}, a message with several local recipients is written only once and
+ * counts its recipients in references. Reference segments hold one small record per recipient,
+ * {@code [int length][long previous][long next][long seq][user][id][long body]}, where previous and next point to the
+ * references stored before and after for the same user, so the references of a user form a chain in arrival order. A
+ * deleted or replaced reference is unlinked right away, listing walks the chain from the oldest reference and only ever
+ * sees live messages. An {@link #iterator(String, int) iterator} walks the chain a page at a time and continues after
+ * the last reference it returned, or after its seq if that reference was deleted in the meantime.
+ * <p>
+ * Messages are found through an off-heap open-addressing hash table with fixed-width slots of
+ * {@code [long userHash][long id][long seq][long reference]}. Pointers hold the segment number in the upper and the
+ * offset in the lower 32 bits.
+ * <p>
+ * Once the last recipient deleted a message, its body is dead. A body or reference segment whose records are all dead
+ * is unmapped and deleted, other space is not reused. All segment files are scratch space that is deleted on close, durability
+ * across restarts is provided by the {@link MessageLog}.
+ */
+class MappedMessageStore implements MessageStore {
+
+    private static final int SLOT_SIZE = 32;
+    private static final int REFERENCE_HEADER = 28;
+    // messages an iterator decodes while holding the read lock
+    private static final int ITERATOR_PAGE_SIZE = 64;
+    private static final long NONE = -1L;
+    // id of a deleted slot, probing continues past it; encoded ids never have all bits set
+    private static final long DELETED = -1L;
+
+    private final Path directory;
+    private final Segments references;
+    private final Segments bodies;
+
+    private ByteBuffer index;
+    private int capacity;
+    // occupied slots including deleted ones, and slots pointing to a live message
+    private int used = 0;
+    private int live = 0;
+    private long nextSeq = 1;
+
+    // ends of the reference chain of every user, the only data kept on the heap per user
+    private final Map<String, Chain> chains = new HashMap<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    MappedMessageStore(Path directory, int segmentSize, int initialCapacity) throws IOException {
+        this.directory = directory;
+
+        Files.createDirectories(directory);
+        // segments of an earlier run are stale, their content was restored from the message log if enabled
+        deleteSegmentFiles();
+
+        this.references = new Segments("refs", segmentSize);
+        this.bodies = new Segments("bodies", segmentSize);
+
+        this.capacity = Integer.highestOneBit(Math.max(16, initialCapacity) - 1) << 1;
+        this.index = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+    }
+
+    @Override
+    public List<String> add(List<String> users, Message message, Supplier<String> ids) {
+        lock.writeLock().lock();
+        try {
+            long body = appendBody(message, users.size());
+
+            List<String> added = new ArrayList<>(users.size());
+            for (String user : users) {
+                long hash = userHash(user);
+
+                // draw ids until one is not taken yet, the write lock makes the check and the insert a single step
+                String id;
+                do {
+                    id = ids.get();
+                } while (findSlot(user, hash, encodeId(id)) >= 0);
+
+                insert(user, id, body);
+                added.add(id);
+            }
+            return added;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void put(List<String> users, List<String> ids, Message message) {
+        lock.writeLock().lock();
+        try {
+            long body = appendBody(message, users.size());
+
+            for (int i = 0; i < users.size(); i++) {
+                insert(users.get(i), ids.get(i), body);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> list(String user) {
+        return list(user, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<Message> list(String user, int offset, int limit) {
+        lock.readLock().lock();
+        try {
+            Chain chain = chains.get(user);
+            long pointer = chain == null ? NONE : chain.oldest;
+
+            // the chain only holds live references, skipping reads a single pointer per message
+            for (int i = 0; i < offset && pointer != NONE; i++) pointer = nextPointer(pointer);
+
+            // only the bodies of the requested window are decoded
+            List<Message> messages = new ArrayList<>();
+            while (pointer != NONE && messages.size() < limit) {
+                Reference reference = readReference(pointer);
+                messages.add(readBody(reference.body).setId(reference.id));
+                pointer = reference.next;
+            }
+            return messages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Iterator<Message> iterator(String user, int offset) {
+        return new Cursor(user, offset);
+    }
+
+    @Override
+    public Message get(String user, String id) {
+        // no user is logged in, a user without messages
+        if (user == null) return null;
+
+        lock.readLock().lock();
+        try {
+            int slot = findSlot(user, userHash(user), encodeId(id));
+            if (slot < 0) return null;
+
+            Reference reference = readReference(index.getLong(slot * SLOT_SIZE + 24));
+            return readBody(reference.body).setId(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(String user, String id) {
+        if (user == null) return false;
+
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(user, userHash(user), encodeId(id));
+            if (slot < 0) return false;
+
+            unlink(user, index.getLong(slot * SLOT_SIZE + 24));
+
+            index.putLong(slot * SLOT_SIZE + 8, DELETED);
+            live--;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Collection<Message>> snapshot() {
+        List<String> users;
+        lock.readLock().lock();
+        try {
+            users = new ArrayList<>(chains.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // messages are decoded one user at a time while the snapshot is iterated
+        Map<String, Collection<Message>> snapshot = new HashMap<>();
+        for (String user : users) {
+            snapshot.put(user, new AbstractCollection<Message>() {
+                @Override
+                public Iterator<Message> iterator() {
+                    return list(user).iterator();
+                }
+
+                @Override
+                public int size() {
+                    return list(user).size();
+                }
+            });
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            chains.clear();
+            references.close();
+            bodies.close();
+
+            deleteSegmentFiles();
+        } catch (IOException e) {
+            System.out.println("Error while deleting message segments: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // has to be called with the write lock held
+    private void insert(String user, String id, long body) {
+        long hash = userHash(user);
+        long encodedId = encodeId(id);
+
+        int slot = findSlot(user, hash, encodedId);
+        if (slot >= 0) {
+            // replaced, the old reference leaves the chain and its body loses a reference
+            unlink(user, index.getLong(slot * SLOT_SIZE + 24));
+        }
+
+        long seq = nextSeq++;
+        Chain chain = chains.computeIfAbsent(user, key -> new Chain());
+        long pointer = appendReference(user, id, body, chain.newest, seq);
+        if (chain.newest == NONE) chain.oldest = pointer;
+        else setNext(chain.newest, pointer);
+        chain.newest = pointer;
+
+        if (slot < 0) {
+            if (used + 1 > capacity * 3 / 4) {
+                // only grow if the table is full of live messages, otherwise rehashing drops the deleted slots
+                rehash(live + 1 > capacity / 2 ? capacity * 2 : capacity);
+            }
+            slot = freeSlot(hash, encodedId);
+            if (index.getLong(slot * SLOT_SIZE) == 0) used++;
+            live++;
+        }
+
+        int base = slot * SLOT_SIZE;
+        index.putLong(base, hash);
+        index.putLong(base + 8, encodedId);
+        index.putLong(base + 16, seq);
+        index.putLong(base + 24, pointer);
+    }
+
+    // returns the slot holding the given message, or -1
+    private int findSlot(String user, long hash, long id) {
+        int mask = capacity - 1;
+        int slot = (int) mix(hash ^ id) & mask;
+
+        while (true) {
+            int base = slot * SLOT_SIZE;
+            long slotHash = index.getLong(base);
+            if (slotHash == 0) return -1;
+
+            // equal hashes of different users are told apart by the user stored in the reference
+            if (slotHash == hash && index.getLong(base + 8) == id && user.equals(readReference(index.getLong(base + 24)).user)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // returns the first empty or deleted slot on the probe sequence of the given key
+    private int freeSlot(long hash, long id) {
+        int mask = capacity - 1;
+        int slot = (int) mix(hash ^ id) & mask;
+
+        while (true) {
+            int base = slot * SLOT_SIZE;
+            if (index.getLong(base) == 0 || index.getLong(base + 8) == DELETED) return slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void rehash(int newCapacity) {
+        ByteBuffer old = index;
+        int oldCapacity = capacity;
+
+        capacity = newCapacity;
+        index = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+        used = 0;
+
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int base = slot * SLOT_SIZE;
+            long hash = old.getLong(base);
+            long id = old.getLong(base + 8);
+            if (hash == 0 || id == DELETED) continue;
+
+            int target = freeSlot(hash, id) * SLOT_SIZE;
+            index.putLong(target, hash);
+            index.putLong(target + 8, id);
+            index.putLong(target + 16, old.getLong(base + 16));
+            index.putLong(target + 24, old.getLong(base + 24));
+            used++;
+        }
+    }
+
+    private long appendBody(Message message, int recipients) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            // the id differs per recipient, it is part of the reference
+            MessageCodec.writeMessage(out, new Message(message).setId(null));
+
+            byte[] payload = bytes.toByteArray();
+            return bodies.append(ByteBuffer.allocate(8).putInt(payload.length).putInt(recipients).array(), payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long appendReference(String user, String id, long body, long previous, long seq) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            MessageCodec.writeString(out, user);
+            MessageCodec.writeString(out, id);
+            out.writeLong(body);
+
+            byte[] payload = bytes.toByteArray();
+            return references.append(ByteBuffer.allocate(REFERENCE_HEADER).putInt(payload.length).putLong(previous).putLong(NONE).putLong(seq).array(), payload);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // removes a reference from the chain of its user and frees its record, has to be called with the write lock held
+    private void unlink(String user, long pointer) {
+        Reference reference = readReference(pointer);
+        Chain chain = chains.get(user);
+
+        if (reference.previous == NONE) chain.oldest = reference.next;
+        else setNext(reference.previous, reference.next);
+        if (reference.next == NONE) chain.newest = reference.previous;
+        else setPrevious(reference.next, reference.previous);
+
+        references.release(pointer, REFERENCE_HEADER + references.record(pointer).getInt((int) pointer));
+        release(reference.body);
+    }
+
+    private long nextPointer(long pointer) {
+        return references.record(pointer).getLong((int) pointer + 12);
+    }
+
+    private long seq(long pointer) {
+        return references.record(pointer).getLong((int) pointer + 20);
+    }
+
+    private void setPrevious(long pointer, long previous) {
+        references.record(pointer).putLong((int) pointer + 4, previous);
+    }
+
+    private void setNext(long pointer, long next) {
+        references.record(pointer).putLong((int) pointer + 12, next);
+    }
+
+    // drops a reference to the given body, the body is dead after the last one
+    private void release(long body) {
+        ByteBuffer record = bodies.record(body);
+        int offset = (int) body;
+
+        int referenceCount = record.getInt(offset + 4) - 1;
+        record.putInt(offset + 4, referenceCount);
+
+        if (referenceCount == 0) bodies.release(body, 8 + record.getInt(offset));
+    }
+
+    private Reference readReference(long pointer) {
+        ByteBuffer record = references.record(pointer);
+        int offset = (int) pointer;
+        record.position(offset + REFERENCE_HEADER).limit(offset + REFERENCE_HEADER + record.getInt(offset));
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(record));
+            return new Reference(record.getLong(offset + 4), record.getLong(offset + 12), MessageCodec.readString(in), MessageCodec.readString(in), in.readLong());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Message readBody(long pointer) {
+        ByteBuffer record = bodies.record(pointer);
+        int offset = (int) pointer;
+        record.position(offset + 8).limit(offset + 8 + record.getInt(offset));
+
+        try {
+            return MessageCodec.readMessage(new DataInputStream(new ByteBufferInputStream(record)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void deleteSegmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (file.getFileName().toString().endsWith(".mmap")) Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    // ids are 8 lowercase letters, which fit into a long as ascii bytes
+    private static long encodeId(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.US_ASCII);
+        if (bytes.length > 8) throw new IllegalArgumentException("Message id " + id + " is longer than 8 characters");
+
+        long encoded = 0;
+        for (byte b : bytes) encoded = (encoded << 8) | (b & 0xff);
+        return encoded;
+    }
+
+    // 64 bit FNV-1a, never 0 because 0 marks an empty slot
+    private static long userHash(String user) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < user.length(); i++) {
+            hash ^= user.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static class Reference {
+        private final long previous;
+        private final long next;
+        private final String user;
+        private final String id;
+        private final long body;
+
+        Reference(long previous, long next, String user, String id, long body) {
+            this.previous = previous;
+            this.next = next;
+            this.user = user;
+            this.id = id;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Iterator over the messages of a user that only holds the read lock while it decodes the next page, so a long
+     * listing never blocks stores and deletes.
+     */
+    private class Cursor implements Iterator<Message> {
+        private final String user;
+        private final int offset;
+        private final ArrayDeque<Message> page = new ArrayDeque<>();
+
+        // the reference returned last, NONE before the first page
+        private long last = NONE;
+        private String lastId;
+        private long lastSeq;
+        private boolean exhausted = false;
+
+        Cursor(String user, int offset) {
+            this.user = user;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (page.isEmpty() && !exhausted) fill();
+            return !page.isEmpty();
+        }
+
+        @Override
+        public Message next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return page.poll();
+        }
+
+        private void fill() {
+            lock.readLock().lock();
+            try {
+                long pointer = start();
+                while (pointer != NONE && page.size() < ITERATOR_PAGE_SIZE) {
+                    Reference reference = readReference(pointer);
+                    page.add(readBody(reference.body).setId(reference.id));
+
+                    last = pointer;
+                    lastId = reference.id;
+                    lastSeq = seq(pointer);
+                    pointer = reference.next;
+                }
+                exhausted = pointer == NONE;
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        // the first reference of the next page, has to be called with the read lock held
+        private long start() {
+            Chain chain = chains.get(user);
+            if (chain == null) return NONE;
+
+            if (last == NONE) {
+                long pointer = chain.oldest;
+                for (int i = 0; i < offset && pointer != NONE; i++) pointer = nextPointer(pointer);
+                return pointer;
+            }
+
+            // the reference returned last is still linked as long as the index points to it, records are never moved
+            int slot = findSlot(user, userHash(user), encodeId(lastId));
+            if (slot >= 0 && index.getLong(slot * SLOT_SIZE + 24) == last) return nextPointer(last);
+
+            // it was deleted in the meantime, continue with the first reference that arrived after it
+            long pointer = chain.oldest;
+            while (pointer != NONE && seq(pointer) <= lastSeq) pointer = nextPointer(pointer);
+            return pointer;
+        }
+    }
+
+    private static class Chain {
+        private long oldest = NONE;
+        private long newest = NONE;
+    }
+
+    /**
+     * Memory-mapped files of one kind of record, records are only appended to the newest one.
+     */
+    private class Segments {
+        private final String prefix;
+        private final int segmentSize;
+
+        private final List<FileChannel> channels = new ArrayList<>();
+        private final List<MappedByteBuffer> buffers = new ArrayList<>();
+        // bytes of live records per segment
+        private final List<Integer> liveBytes = new ArrayList<>();
+        private int activeOffset;
+
+        Segments(String prefix, int segmentSize) {
+            this.prefix = prefix;
+            this.segmentSize = segmentSize;
+        }
+
+        long append(byte[] header, byte[] payload) {
+            int needed = header.length + payload.length;
+            int active = buffers.size() - 1;
+            if (active < 0 || activeOffset + needed > buffers.get(active).capacity()) {
+                active = newSegment(Math.max(segmentSize, needed));
+                // all records of the previous segment might have died while it was still the active one
+                if (active > 0) release(((long) (active - 1)) << 32, 0);
+            }
+
+            ByteBuffer segment = buffers.get(active).duplicate();
+            segment.position(activeOffset);
+            segment.put(header).put(payload);
+
+            long pointer = ((long) active << 32) | activeOffset;
+            activeOffset += needed;
+            liveBytes.set(active, liveBytes.get(active) + needed);
+            return pointer;
+        }
+
+        // view of the segment containing the record at the given pointer
+        ByteBuffer record(long pointer) {
+            return buffers.get((int) (pointer >>> 32)).duplicate();
+        }
+
+        // marks the record as dead, an older segment without live records is unmapped and deleted
+        void release(long pointer, int size) {
+            int segment = (int) (pointer >>> 32);
+            int remaining = liveBytes.get(segment) - size;
+            liveBytes.set(segment, remaining);
+
+            if (remaining == 0 && segment < buffers.size() - 1 && buffers.get(segment) != null) {
+                buffers.set(segment, null);
+                try {
+                    channels.get(segment).close();
+                    Files.deleteIfExists(path(segment));
+                } catch (IOException e) {
+                    System.out.println("Error while deleting message segment: " + e.getMessage());
+                }
+            }
+        }
+
+        void close() {
+            for (FileChannel channel : channels) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    // Ignored because we cannot handle it
+                }
+            }
+            channels.clear();
+            buffers.clear();
+            liveBytes.clear();
+        }
+
+        private int newSegment(int size) {
+            int number = buffers.size();
+            Path file = path(number);
+            try {
+                FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                channels.add(channel);
+                buffers.add(channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+                liveBytes.add(0);
+                activeOffset = 0;
+                return number;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error while creating message segment " + file, e);
+            }
+        }
+
+        private Path path(int number) {
+            return directory.resolve(prefix + "-" + String.format("%06d", number) + ".mmap");
+        }
+    }
+
+    // reads a record straight from the mapping, without copying it into an array first
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) return -1;
+
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
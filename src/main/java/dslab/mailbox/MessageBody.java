@@ -0,0 +1,33 @@
+package dslab.mailbox;
+
+import dslab.entity.Message;
+
+import java.util.ArrayList;
+
+/**
+ * The content of a stored message, shared by all local recipients of the message. Never changed after storing.
+ */
+class MessageBody {
+
+    private final ArrayList<String> recipients;
+    private final String sender;
+    private final String subject;
+    private final String data;
+    private final String hash;
+
+    MessageBody(Message message) {
+        this.recipients = new ArrayList<>(message.getRecipients());
+        this.sender = message.getSender();
+        this.subject = message.getSubject();
+        this.data = message.getData();
+        this.hash = message.getHash();
+    }
+
+    /**
+     * @param id the id of the message in the inbox of the user
+     * @return a message with this content, like clones of messages it shares the strings and recipients
+     */
+    Message toMessage(String id) {
+        return new Message(id, recipients, sender, subject, data, hash);
+    }
+}
@@ -0,0 +1,63 @@
+package dslab.mailbox;
+
+import dslab.entity.Message;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * Binary encoding of messages, shared by the {@link MessageLog} and the {@link MappedMessageStore}.
+ */
+final class MessageCodec {
+
+    private MessageCodec() {}
+
+    static void writeMessage(DataOutputStream out, Message message) throws IOException {
+        writeString(out, message.getId());
+        writeString(out, message.getSender());
+        writeString(out, message.getSubject());
+        writeString(out, message.getData());
+        writeString(out, message.getHash());
+
+        out.writeInt(message.getRecipients().size());
+        for (String recipient : message.getRecipients()) writeString(out, recipient);
+    }
+
+    static Message readMessage(DataInputStream in) throws IOException {
+        String id = readString(in);
+        String sender = readString(in);
+        String subject = readString(in);
+        String data = readString(in);
+        String hash = readString(in);
+
+        int count = in.readInt();
+        ArrayList<String> recipients = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) recipients.add(readString(in));
+
+        return new Message(id, recipients, sender, subject, data, hash);
+    }
+
+    // unlike writeUTF this is not limited to 64KB, null is written as length -1
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,397 @@
+package dslab.mailbox;
+
+import dslab.entity.Message;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the store and delete operations of the {@link MessageStorageSingleton}. The log is split into
+ * numbered segment files, only the newest one is written to. On startup all segments are replayed in order to rebuild
+ * the in-memory storage.
+ * <p>
+ * Every record is framed as {@code [int length][int crc32][byte type][payload]}, a record with a wrong checksum or a
+ * truncated tail (e.g. after a crash during a write) ends the replay of its segment.
+ * <p>
+ * Writes go straight to the file channel, a {@link LogSyncThread} forces them to disk. Writers that need their record
+ * on disk wait in {@link #awaitDurable(long)}, all records appended while a force is running are covered by the next
+ * one (group commit). When the number of segments grows beyond a threshold, the live messages are written into a new
+ * segment and all older segments are deleted.
+ */
+public class MessageLog {
+
+    public enum Durability {
+        // acknowledge after the record was written to the file, it is forced to disk in the background
+        WRITE,
+        // acknowledge after the record was forced to disk
+        FSYNC
+    }
+
+    /**
+     * Receives the records of the log during replay.
+     */
+    public interface Handler {
+        /**
+         * @param users the users the message was stored for
+         * @param ids the id of the message for each user, in the same order
+         * @param message the message, shared by all users
+         */
+        void onStore(List<String> users, List<String> ids, Message message);
+
+        void onDelete(String user, String id);
+    }
+
+    private static final byte STORE = 1;
+    private static final byte DELETE = 2;
+    // a message stored for several users, the message itself is contained only once
+    private static final byte STORE_SHARED = 3;
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final Durability durability;
+    private final long segmentSize;
+    private final int compactionThreshold;
+
+    // provides the current content of the storage for compaction
+    private final Supplier<Map<String, ? extends Collection<Message>>> liveMessages;
+
+    private final TreeSet<Long> segments = new TreeSet<>();
+    private FileChannel active;
+    private long activeId;
+    private long activeSize;
+
+    // total number of bytes appended / forced to disk since the log was opened, used as position of a record
+    private volatile long written = 0;
+    private long synced = 0;
+    private final Object syncLock = new Object();
+
+    private LogSyncThread syncThread;
+
+    public MessageLog(Path directory, Durability durability, long segmentSize, int compactionThreshold,
+                      Supplier<Map<String, ? extends Collection<Message>>> liveMessages) {
+        this.directory = directory;
+        this.durability = durability;
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        this.liveMessages = liveMessages;
+    }
+
+    /**
+     * Replays all existing segments into the given handler and starts a new segment for appending.
+     *
+     * @param handler receives the replayed records
+     * @param syncIntervalMillis maximum time records stay unforced in {@link Durability#WRITE} mode
+     * @throws IOException if the log directory cannot be read or the new segment cannot be created
+     */
+    public synchronized void open(Handler handler, long syncIntervalMillis) throws IOException {
+        Files.createDirectories(directory);
+
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()))));
+        }
+
+        int records = 0;
+        for (long id : segments) {
+            records += replaySegment(segmentPath(id), handler);
+        }
+        System.out.println("Replayed " + records + " records from " + segments.size() + " segments in " + directory);
+
+        openSegment(segments.isEmpty() ? 1 : segments.last() + 1);
+
+        syncThread = new LogSyncThread(this, syncIntervalMillis);
+        syncThread.start();
+    }
+
+    public long appendStore(List<String> users, List<String> ids, Message message) throws IOException {
+        if (users.size() == 1) return append(encodeStore(users.get(0), new Message(message).setId(ids.get(0))));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(STORE_SHARED);
+        out.writeInt(users.size());
+        for (int i = 0; i < users.size(); i++) {
+            MessageCodec.writeString(out, users.get(i));
+            MessageCodec.writeString(out, ids.get(i));
+        }
+        MessageCodec.writeMessage(out, message);
+
+        return append(frame(bytes.toByteArray()));
+    }
+
+    public long appendDelete(String user, String id) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(DELETE);
+        MessageCodec.writeString(out, user);
+        MessageCodec.writeString(out, id);
+
+        return append(frame(bytes.toByteArray()));
+    }
+
+    /**
+     * Blocks until the record at the given position is on disk, if the durability level requires it.
+     *
+     * @param position the position returned by one of the append methods
+     */
+    public void awaitDurable(long position) throws IOException {
+        if (durability != Durability.FSYNC) return;
+
+        synchronized (syncLock) {
+            syncLock.notifyAll();
+            while (synced < position) {
+                if (syncThread == null || !syncThread.isAlive()) throw new IOException("Message log is closed");
+                try {
+                    syncLock.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the message log", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes all live messages into a new segment and deletes all older segments. The live messages are taken while
+     * the log is locked, so every record appended before is contained in them and every record appended meanwhile
+     * waits for the fresh segment.
+     */
+    public synchronized void compact() throws IOException {
+        if (liveMessages != null) compact(liveMessages.get());
+    }
+
+    // has to be called holding the lock of the log
+    private void compact(Map<String, ? extends Collection<Message>> live) throws IOException {
+        long compactedId = activeId + 1;
+        Path temp = directory.resolve(compactedId + SEGMENT_SUFFIX + ".tmp");
+
+        int records = 0;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<String, ? extends Collection<Message>> inbox : live.entrySet()) {
+                for (Message message : inbox.getValue()) {
+                    writeFully(channel, encodeStore(inbox.getKey(), message));
+                    records++;
+                }
+            }
+            channel.force(true);
+        }
+        Files.move(temp, segmentPath(compactedId), StandardCopyOption.ATOMIC_MOVE);
+
+        // everything up to here is contained in the compacted segment, continue with a fresh one after it
+        FileChannel old = active;
+        old.force(false);
+        segments.add(compactedId);
+        openSegment(compactedId + 1);
+        old.close();
+
+        for (long id : new ArrayList<>(segments.headSet(compactedId))) {
+            Files.deleteIfExists(segmentPath(id));
+            segments.remove(id);
+        }
+
+        markSynced(written);
+        System.out.println("Compacted message log into " + records + " records");
+    }
+
+    public synchronized void close() {
+        if (syncThread != null) syncThread.shutdown();
+
+        try {
+            if (active != null) {
+                active.force(false);
+                active.close();
+            }
+        } catch (IOException e) {
+            System.out.println("Error while closing message log: " + e.getMessage());
+        }
+
+        markSynced(written);
+    }
+
+    // called by the LogSyncThread, forces everything written so far to disk
+    void sync() throws IOException {
+        long position;
+        FileChannel channel;
+        synchronized (this) {
+            position = written;
+            channel = active;
+        }
+
+        if (!needsSync(position)) return;
+
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // the segment was rolled in the meantime, rolling forces it anyway
+            return;
+        }
+
+        markSynced(position);
+    }
+
+    // waits until records are pending and either a writer waits for them or the interval is over
+    void awaitPending(long intervalMillis) throws InterruptedException {
+        synchronized (syncLock) {
+            // in fsync mode writers wait for every record, start the next force right away
+            if (durability == Durability.FSYNC && synced < written) return;
+            syncLock.wait(intervalMillis);
+        }
+    }
+
+    private synchronized long append(byte[] record) throws IOException {
+        writeFully(active, record);
+        activeSize += record.length;
+        written += record.length;
+        long position = written;
+
+        if (activeSize >= segmentSize) {
+            rollSegment();
+        }
+
+        return position;
+    }
+
+    private void rollSegment() throws IOException {
+        FileChannel old = active;
+        old.force(false);
+        openSegment(activeId + 1);
+        old.close();
+        markSynced(written);
+
+        if (segments.size() > compactionThreshold) compact();
+    }
+
+    private void openSegment(long id) throws IOException {
+        active = FileChannel.open(segmentPath(id), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        activeId = id;
+        activeSize = active.size();
+        segments.add(id);
+    }
+
+    private boolean needsSync(long position) {
+        synchronized (syncLock) {
+            return synced < position;
+        }
+    }
+
+    private void markSynced(long position) {
+        synchronized (syncLock) {
+            if (position > synced) synced = position;
+            syncLock.notifyAll();
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%010d", id) + SEGMENT_SUFFIX);
+    }
+
+    private int replaySegment(Path segment, Handler handler) throws IOException {
+        int records = 0;
+        long remaining = Files.size(segment);
+
+        try (InputStream file = Files.newInputStream(segment);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int crc = in.readInt();
+                    remaining -= 8;
+                    // a length beyond the end of the file can only come from a torn write
+                    if (length <= 0 || length > remaining) break;
+                    remaining -= length;
+
+                    payload = new byte[length];
+                    in.readFully(payload);
+
+                    if (crc(payload) != crc) {
+                        System.out.println("Corrupt record in " + segment.getFileName() + ", skipping rest of segment");
+                        break;
+                    }
+                } catch (EOFException e) {
+                    // end of segment, or a record that was only partially written
+                    break;
+                }
+
+                applyRecord(payload, handler);
+                records++;
+            }
+        }
+
+        return records;
+    }
+
+    private static void applyRecord(byte[] payload, Handler handler) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+
+        if (type == STORE) {
+            String user = MessageCodec.readString(in);
+            Message message = MessageCodec.readMessage(in);
+            handler.onStore(Collections.singletonList(user), Collections.singletonList(message.getId()), message);
+        } else if (type == STORE_SHARED) {
+            int count = in.readInt();
+            List<String> users = new ArrayList<>(count);
+            List<String> ids = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                users.add(MessageCodec.readString(in));
+                ids.add(MessageCodec.readString(in));
+            }
+            handler.onStore(users, ids, MessageCodec.readMessage(in));
+        } else if (type == DELETE) {
+            String user = MessageCodec.readString(in);
+            handler.onDelete(user, MessageCodec.readString(in));
+        }
+    }
+
+    private static byte[] encodeStore(String user, Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(STORE);
+        MessageCodec.writeString(out, user);
+        MessageCodec.writeMessage(out, message);
+
+        return frame(bytes.toByteArray());
+    }
+
+    private static byte[] frame(byte[] payload) {
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+        record.putInt(payload.length).putInt(crc(payload)).put(payload);
+        return record.array();
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel channel, byte[] record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+}
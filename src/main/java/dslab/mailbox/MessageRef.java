@@ -0,0 +1,32 @@
+package dslab.mailbox;
+
+import dslab.entity.Message;
+
+/**
+ * Entry of a message in the inbox of a user, all recipients of the message reference the same {@link MessageBody}.
+ */
+class MessageRef {
+
+    private final String id;
+    private final MessageBody body;
+    // arrival order of the message in the inbox
+    private final long seq;
+
+    MessageRef(String id, MessageBody body, long seq) {
+        this.id = id;
+        this.body = body;
+        this.seq = seq;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    long getSeq() {
+        return seq;
+    }
+
+    Message toMessage() {
+        return body.toMessage(id);
+    }
+}
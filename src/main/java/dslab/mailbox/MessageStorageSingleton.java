@@ -1,18 +1,37 @@
 package dslab.mailbox;
 
 import dslab.entity.Message;
+import dslab.util.Config;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class MessageStorageSingleton {
     private static volatile MessageStorageSingleton INSTANCE;
-    private final HashMap<String, HashMap<String, Message>> messages;
+
+    // DMTP and DMAP threads access the storage concurrently, the store has to be thread safe
+    private volatile MessageStore store;
+
+    // only set if storage.enabled is configured, otherwise messages are kept in memory only
+    private volatile MessageLog log;
+    // number of mailbox servers in this process that use the storage
+    private int users = 0;
+
+    // orders the log records of the same user, see storeMessage
+    private final ReentrantLock[] userLocks = new ReentrantLock[64];
 
     private MessageStorageSingleton() {
-        this.messages = new HashMap<>();
+        this.store = new HeapMessageStore();
+
+        for (int i = 0; i < userLocks.length; i++) userLocks[i] = new ReentrantLock();
     }
 
     public static synchronized MessageStorageSingleton getInstance() {
@@ -23,42 +42,215 @@ public class MessageStorageSingleton {
         return INSTANCE;
     }
 
-    public void storeMessage(String user, Message message) {
-        if (!messages.containsKey(user)) messages.put(user, new HashMap<>());
+    /**
+     * Selects the store of the given storage.mode and opens the message log and restores the stored messages from it,
+     * if storage.enabled is set in the given config. Has to be called on server startup before the first message is
+     * stored.
+     *
+     * @param config the mailbox server config
+     */
+    public synchronized void setup(Config config) {
+        // several mailbox servers in the same process share the storage, the first one configures it
+        if (users++ > 0) return;
+
+        if (config.containsKey("storage.mode") && config.getString("storage.mode").equals("mmap")) {
+            try {
+                store = new MappedMessageStore(
+                        Paths.get(config.getString("storage.mmap.dir")),
+                        config.containsKey("storage.mmap.segment.size") ? config.getInt("storage.mmap.segment.size") : 64 * 1024 * 1024,
+                        config.containsKey("storage.mmap.index.capacity") ? config.getInt("storage.mmap.index.capacity") : 4096
+                );
+            } catch (IOException e) {
+                throw new StorageException("Error while creating memory-mapped message store", e);
+            }
+        }
+
+        if (!config.containsKey("storage.enabled") || !Boolean.parseBoolean(config.getString("storage.enabled"))) return;
+
+        MessageLog.Durability durability = config.containsKey("storage.durability")
+                ? MessageLog.Durability.valueOf(config.getString("storage.durability").toUpperCase())
+                : MessageLog.Durability.FSYNC;
 
-        String id = randomId();
+        MessageLog newLog = new MessageLog(
+                Paths.get(config.getString("storage.dir")),
+                durability,
+                config.containsKey("storage.segment.size") ? config.getInt("storage.segment.size") : 16 * 1024 * 1024,
+                config.containsKey("storage.compaction.segments") ? config.getInt("storage.compaction.segments") : 4,
+                () -> store.snapshot()
+        );
+
+        try {
+            newLog.open(new MessageLog.Handler() {
+                @Override
+                public void onStore(List<String> users, List<String> ids, Message message) {
+                    store.put(users, ids, message);
+                }
+
+                @Override
+                public void onDelete(String user, String id) {
+                    store.remove(user, id);
+                }
+            }, config.containsKey("storage.sync.interval") ? config.getInt("storage.sync.interval") : 1000);
+        } catch (IOException e) {
+            throw new StorageException("Error while opening message log", e);
+        }
+
+        this.log = newLog;
+    }
+
+    public synchronized void shutdown() {
+        if (users == 0 || --users > 0) return;
+
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+
+        // the mapped segments are scratch space, go back to the heap for the next setup
+        if (store instanceof MappedMessageStore) {
+            store.close();
+            store = new HeapMessageStore();
+        }
+    }
+
+    /**
+     * Rewrites the message log so it only contains the messages that are currently stored.
+     */
+    public void compact() {
+        MessageLog log = this.log;
+        if (log == null) return;
+
+        try {
+            log.compact();
+        } catch (IOException e) {
+            throw new StorageException("Error while compacting message log", e);
+        }
+    }
 
-        // clone message so each user has its own in storage
-        Message clone = new Message(message);
-        clone.setId(id);
+    public void storeMessage(String user, Message message) {
+        storeMessage(Collections.singletonList(user), message);
+    }
 
-        messages.get(user).put(id, clone);
+    /**
+     * Stores a message for several local recipients, its content is stored only once and shared by all of them.
+     *
+     * @param users   the users to store the message for
+     * @param message the message
+     */
+    public void storeMessage(List<String> users, Message message) {
+        MessageLog log = this.log;
+        if (log == null) {
+            insert(users, message);
+        } else {
+            long position;
+            // the record has to be appended before a delete of the same message can be, so both happen under the
+            // lock of the users; the store is changed first so a concurrent compaction never misses the message
+            List<ReentrantLock> locks = lockAll(users);
+            try {
+                List<String> ids = insert(users, message);
+                try {
+                    position = log.appendStore(users, ids, message);
+                } catch (IOException e) {
+                    for (int i = 0; i < users.size(); i++) store.remove(users.get(i), ids.get(i));
+                    throw new StorageException("Error while writing message to log", e);
+                }
+            } finally {
+                unlockAll(locks);
+            }
+            awaitDurable(log, position);
+        }
 
-        System.out.println("Message for user " + user + " stored!");
+        System.out.println("Message for users " + users + " stored!");
     }
 
     public List<Message> listMessages(String user) {
-        if (!messages.containsKey(user)) return new ArrayList<>();
-        return new ArrayList<>(messages.get(user).values());
+        return store.list(user);
+    }
+
+    /**
+     * @param offset number of messages to skip, counted from the oldest one
+     * @param limit  maximum number of messages to return
+     * @return a window of the messages of the user, in the order they arrived
+     */
+    public List<Message> listMessages(String user, int offset, int limit) {
+        return store.list(user, offset, limit);
+    }
+
+    /**
+     * @param offset number of messages to skip, counted from the oldest one
+     * @return the messages of the user in the order they arrived, loaded from the store while the iterator advances
+     */
+    public Iterator<Message> iterateMessages(String user, int offset) {
+        return store.iterator(user, offset);
     }
 
     public Message getMessage(String user, String id) throws MessageNotFoundException {
-        if (!messages.containsKey(user) || !messages.get(user).containsKey(id))
-            throw new MessageNotFoundException("error unknown message id");
+        Message message = store.get(user, id);
+
+        if (message == null) throw new MessageNotFoundException("error unknown message id");
 
-        return messages.get(user).get(id);
+        return message;
     }
 
     public void deleteMessage(String user, String id) {
-        if (!messages.containsKey(user) || !messages.get(user).containsKey(id))
-            throw new MessageNotFoundException("error unknown message id");
+        MessageLog log = this.log;
+        if (log == null) {
+            // only one of several concurrent deletes of the same message succeeds
+            if (!store.remove(user, id)) throw new MessageNotFoundException("error unknown message id");
+            return;
+        }
+
+        long position;
+        List<ReentrantLock> locks = lockAll(Collections.singletonList(user));
+        try {
+            if (!store.remove(user, id)) throw new MessageNotFoundException("error unknown message id");
+            try {
+                position = log.appendDelete(user, id);
+            } catch (IOException e) {
+                throw new StorageException("Error while writing delete to log", e);
+            }
+        } finally {
+            unlockAll(locks);
+        }
+        awaitDurable(log, position);
+    }
+
+    private List<String> insert(List<String> users, Message message) {
+        try {
+            return store.add(users, message, this::randomId);
+        } catch (UncheckedIOException e) {
+            throw new StorageException("Error while storing message", e.getCause());
+        }
+    }
+
+    private void awaitDurable(MessageLog log, long position) {
+        try {
+            log.awaitDurable(position);
+        } catch (IOException e) {
+            throw new StorageException("Error while syncing message log", e);
+        }
+    }
+
+    // the locks are always taken in the same order, so two messages for overlapping users cannot deadlock
+    private List<ReentrantLock> lockAll(List<String> users) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (String user : users) stripes.add((user.hashCode() & 0x7fffffff) % userLocks.length);
+
+        List<ReentrantLock> locks = new ArrayList<>(stripes.size());
+        for (int stripe : stripes) {
+            userLocks[stripe].lock();
+            locks.add(userLocks[stripe]);
+        }
+        return locks;
+    }
 
-        messages.get(user).remove(id);
+    private void unlockAll(List<ReentrantLock> locks) {
+        for (ReentrantLock lock : locks) lock.unlock();
     }
 
     private String randomId() {
         StringBuilder id = new StringBuilder();
-        Random rand = new Random();
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
         for (int i = 0; i < 8; i++) {
             id.append((char) ('a' + rand.nextInt(26)));
         }
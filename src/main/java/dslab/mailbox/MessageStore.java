@@ -0,0 +1,68 @@
+package dslab.mailbox;
+
+import dslab.entity.Message;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Holds the messages of all users for the {@link MessageStorageSingleton}, selected by storage.mode.
+ */
+interface MessageStore {
+
+    /**
+     * Stores the message for all given users, the message itself is stored only once and shared by the users.
+     *
+     * @param users the users to store the message for
+     * @param message the message, its id is ignored
+     * @param ids generates candidates for the id of the message, until one is found that the user does not use yet
+     * @return the id of the message for each user, in the same order
+     */
+    List<String> add(List<String> users, Message message, Supplier<String> ids);
+
+    /**
+     * Stores the message for all given users under the given ids, replacing messages with the same id.
+     */
+    void put(List<String> users, List<String> ids, Message message);
+
+    /**
+     * @return all messages of the user, in the order they arrived
+     */
+    List<Message> list(String user);
+
+    /**
+     * @param offset number of messages to skip, counted from the oldest one
+     * @param limit maximum number of messages to return
+     * @return a window of the messages of the user, in the order they arrived
+     */
+    List<Message> list(String user, int offset, int limit);
+
+    /**
+     * Walks the messages of the user once, decoding them only as the iterator advances. Messages stored or deleted
+     * while the iterator is used may or may not be returned.
+     *
+     * @param offset number of messages to skip, counted from the oldest one
+     * @return the messages of the user, in the order they arrived
+     */
+    Iterator<Message> iterator(String user, int offset);
+
+    /**
+     * @return the message, or null if the user has no message with this id
+     */
+    Message get(String user, String id);
+
+    /**
+     * @return false if the user has no message with this id
+     */
+    boolean remove(String user, String id);
+
+    /**
+     * @return all messages, per user
+     */
+    Map<String, Collection<Message>> snapshot();
+
+    void close();
+}
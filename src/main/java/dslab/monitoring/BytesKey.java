@@ -0,0 +1,51 @@
+package dslab.monitoring;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A range of bytes that is compared by content. A probe key points into a packet buffer to look up a counter without
+ * copying the key, the counters keep a copy of their key.
+ */
+class BytesKey {
+    private byte[] bytes;
+    private int offset;
+    private int length;
+    private int hash;
+
+    BytesKey set(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+
+        int h = 1;
+        for (int i = offset; i < offset + length; i++) h = 31 * h + bytes[i];
+        this.hash = h;
+        return this;
+    }
+
+    /**
+     * @return a key with its own copy of the bytes, which stays valid when the buffer of this key is reused
+     */
+    BytesKey copy() {
+        return new BytesKey().set(Arrays.copyOfRange(bytes, offset, offset + length), 0, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof BytesKey)) return false;
+        BytesKey other = (BytesKey) o;
+        return hash == other.hash
+                && Arrays.equals(bytes, offset, offset + length, other.bytes, other.offset, other.offset + other.length);
+    }
+}
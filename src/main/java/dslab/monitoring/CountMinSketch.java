@@ -0,0 +1,69 @@
+package dslab.monitoring;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Estimates the counts of keys in a fixed amount of memory. An estimate is never lower than the actual count and, with
+ * probability 1 - delta, at most epsilon * (total of all counts) higher.
+ */
+class CountMinSketch {
+
+    private final double epsilon;
+    private final int width;
+    private final int depth;
+    // depth rows of width counters, every key is counted once in every row
+    private final AtomicLongArray table;
+    private final LongAdder total = new LongAdder();
+
+    CountMinSketch(double epsilon, double delta) {
+        this.epsilon = epsilon;
+        this.width = (int) Math.ceil(Math.E / epsilon);
+        this.depth = (int) Math.ceil(Math.log(1 / delta));
+        this.table = new AtomicLongArray(width * depth);
+    }
+
+    /**
+     * Counts the key in the given range of the buffer.
+     *
+     * @return the new estimate of the count of the key
+     */
+    long add(byte[] buffer, int offset, int length, long count) {
+        long hash = hash(buffer, offset, length);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+
+        // the rows use the hash functions h1 + i * h2, which are independent enough for the error bound
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            int combined = h1 + i * h2;
+            int column = (combined & 0x7fffffff) % width;
+            estimate = Math.min(estimate, table.addAndGet(i * width + column, count));
+        }
+
+        total.add(count);
+        return estimate;
+    }
+
+    /**
+     * @return how much an estimate may currently be higher than the actual count (with probability 1 - delta)
+     */
+    long errorBound() {
+        return (long) Math.ceil(epsilon * total.sum());
+    }
+
+    // FNV-1a, followed by the finalizer of MurmurHash3 to spread the bits over both halves
+    private static long hash(byte[] buffer, int offset, int length) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= buffer[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,89 @@
+package dslab.monitoring;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the occurrences of keys, e.g. of the addresses in the monitoring packets, in total and in a sliding window
+ * of the last second, minute and hour (see {@link RateWindow}).
+ * Counting a key that was counted before allocates nothing and never blocks, reading the counts never blocks the
+ * counting. Keys can be counted straight from the bytes of a received packet, they are only decoded to a string the
+ * first time they are seen.
+ */
+class CounterStore implements Counters {
+
+    private final ConcurrentHashMap<BytesKey, Counter> counters = new ConcurrentHashMap<>();
+
+    // looks up the counter of a key in a packet buffer without copying the key, one per receiving thread
+    private final ThreadLocal<BytesKey> probe = ThreadLocal.withInitial(BytesKey::new);
+
+    void increment(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        increment(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void add(byte[] buffer, int offset, int length, long count) {
+        BytesKey key = probe.get().set(buffer, offset, length);
+
+        // get is lock free, computeIfAbsent is only needed the first time a key is seen
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            // the map keeps its own copy of the key, the probe points into the buffer
+            counter = counters.computeIfAbsent(key.copy(), k -> new Counter(k.toString()));
+        }
+        counter.count.add(count);
+        counter.rates.add(count, System.currentTimeMillis());
+    }
+
+    /**
+     * Every count is read exactly once, so the snapshot does not change while it is printed. Packets that arrive while
+     * the snapshot is taken may or may not be counted in it.
+     *
+     * @return the counts of all keys, sorted by key
+     */
+    @Override
+    public Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Counter counter : counters.values()) snapshot.put(counter.name, counter.count.sum());
+        return snapshot;
+    }
+
+    @Override
+    public List<Map.Entry<String, Long>> top(int k) {
+        List<Map.Entry<String, Long>> top = new ArrayList<>(snapshot().entrySet());
+        top.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return top.subList(0, Math.min(k, top.size()));
+    }
+
+    @Override
+    public Map<String, Rates> rates() {
+        long now = System.currentTimeMillis();
+        Map<String, Rates> rates = new TreeMap<>();
+        for (Counter counter : counters.values()) {
+            Rates r = new Rates(counter.rates.lastSecond(now), counter.rates.lastMinute(now), counter.rates.lastHour(now));
+            if (r.perHour > 0) rates.put(counter.name, r);
+        }
+        return rates;
+    }
+
+    @Override
+    public long errorBound() {
+        return 0;
+    }
+
+    private static class Counter {
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final RateWindow rates = new RateWindow();
+
+        private Counter(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package dslab.monitoring;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the keys of the monitoring packets, either exactly ({@link CounterStore}) or approximately in bounded memory
+ * ({@link HeavyHitters}), selected by monitoring.mode.
+ */
+interface Counters {
+
+    /**
+     * Counts the key that is stored in the given range of the buffer, the buffer can be reused afterwards.
+     */
+    default void increment(byte[] buffer, int offset, int length) {
+        add(buffer, offset, length, 1);
+    }
+
+    /**
+     * Adds count occurrences of the key that is stored in the given range of the buffer, e.g. of a batch line.
+     */
+    void add(byte[] buffer, int offset, int length, long count);
+
+    /**
+     * @return the counts of all tracked keys, sorted by key
+     */
+    Map<String, Long> snapshot();
+
+    /**
+     * @return the k keys with the highest counts, highest first
+     */
+    List<Map.Entry<String, Long>> top(int k);
+
+    /**
+     * @return the rates of all keys that were counted in the last hour, sorted by key, empty if rates are not tracked
+     */
+    Map<String, Rates> rates();
+
+    /**
+     * @return how much a reported count may be higher than the actual count, 0 for exact counts
+     */
+    long errorBound();
+
+    class Rates {
+        final long perSecond;
+        final long perMinute;
+        final long perHour;
+
+        Rates(long perSecond, long perMinute, long perHour) {
+            this.perSecond = perSecond;
+            this.perMinute = perMinute;
+            this.perHour = perHour;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package dslab.monitoring;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the keys with the highest counts in bounded memory, for monitoring.mode=sketch.
+ * All keys are counted in a {@link CountMinSketch}, only the heaviest ones are kept in a Space-Saving structure of
+ * fixed capacity: a key that is not tracked replaces the lightest tracked key once its estimate is higher.
+ * The reported counts are the estimates of the sketch, so they are at most {@link #errorBound()} too high.
+ */
+class HeavyHitters implements Counters {
+
+    private final CountMinSketch sketch;
+    private final int capacity;
+
+    private final ConcurrentHashMap<BytesKey, Entry> tracked = new ConcurrentHashMap<>();
+    // the tracked entries ordered by count, the first one is replaced next; guarded by this
+    private final TreeSet<Entry> byCount = new TreeSet<>(
+            Comparator.<Entry>comparingLong(e -> e.count).thenComparingLong(e -> e.sequence));
+    private long nextSequence = 0;
+    // the lowest tracked count once all slots are in use, lighter keys are not tracked
+    private volatile long minimum = 0;
+
+    // looks up a key in a packet buffer without copying the key, one per receiving thread
+    private final ThreadLocal<BytesKey> probe = ThreadLocal.withInitial(BytesKey::new);
+
+    HeavyHitters(double epsilon, double delta, int capacity) {
+        this.sketch = new CountMinSketch(epsilon, delta);
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void add(byte[] buffer, int offset, int length, long count) {
+        long estimate = sketch.add(buffer, offset, length, count);
+        BytesKey key = probe.get().set(buffer, offset, length);
+
+        // most keys are neither tracked nor heavy enough to be tracked, they do not need the lock
+        if (estimate <= minimum && !tracked.containsKey(key)) return;
+
+        synchronized (this) {
+            Entry entry = tracked.get(key);
+            if (entry != null) {
+                byCount.remove(entry);
+                entry.count = Math.max(entry.count, estimate);
+                byCount.add(entry);
+            } else {
+                if (tracked.size() >= capacity) {
+                    Entry lightest = byCount.first();
+                    if (estimate <= lightest.count) return;
+
+                    byCount.pollFirst();
+                    tracked.remove(lightest.key);
+                }
+                entry = new Entry(key.copy(), estimate, nextSequence++);
+                tracked.put(entry.key, entry);
+                byCount.add(entry);
+            }
+
+            minimum = tracked.size() < capacity ? 0 : byCount.first().count;
+        }
+    }
+
+    @Override
+    public synchronized Map<String, Long> snapshot() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        for (Entry entry : byCount) snapshot.put(entry.name, entry.count);
+        return snapshot;
+    }
+
+    @Override
+    public synchronized List<Map.Entry<String, Long>> top(int k) {
+        List<Map.Entry<String, Long>> top = new ArrayList<>(Math.min(k, byCount.size()));
+        for (Entry entry : byCount.descendingSet()) {
+            if (top.size() == k) break;
+            top.add(new AbstractMap.SimpleImmutableEntry<>(entry.name, entry.count));
+        }
+        return top;
+    }
+
+    @Override
+    public Map<String, Rates> rates() {
+        // a window per key would defeat the bounded memory, rates are only tracked in exact mode
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public long errorBound() {
+        return sketch.errorBound();
+    }
+
+    private static class Entry {
+        private final BytesKey key;
+        private final String name;
+        private long count;
+        private final long sequence;
+
+        private Entry(BytesKey key, long count, long sequence) {
+            this.key = key;
+            this.name = key.toString();
+            this.count = count;
+            this.sequence = sequence;
+        }
+    }
+}
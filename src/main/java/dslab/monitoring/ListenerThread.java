@@ -1,26 +1,27 @@
 package dslab.monitoring;
 
-import dslab.util.Config;
-
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Receives monitoring packets from the shared channel and counts them. Several listener threads can share the channel,
+ * but the channel lets only one of them receive at a time, so only parsing and counting run in parallel.
+ * Every packet is copied once from the direct receive buffer into an array, because the counters look keys up by
+ * array ranges.
+ */
 public class ListenerThread extends Thread {
-    private final Config config;
+    private final DatagramChannel channel;
     private final AtomicBoolean stopFlag;
 
-    private DatagramSocket socket;
-
-    private final HashMap<String, Integer> users;
-    private final HashMap<String, Integer> servers;
+    private final Counters users;
+    private final Counters servers;
 
 
-    public ListenerThread(Config config, HashMap<String, Integer> users, HashMap<String, Integer> servers) {
-        this.config = config;
+    public ListenerThread(DatagramChannel channel, Counters users, Counters servers) {
+        this.channel = channel;
         this.stopFlag = new AtomicBoolean(false);
 
         this.users = users;
@@ -29,53 +30,91 @@ public class ListenerThread extends Thread {
 
     @Override
     public void run() {
+        System.out.println("Monitoring listener Thread started...");
 
-        try {
-            // constructs a datagram socket and binds it to the specified port
-            socket = new DatagramSocket(config.getInt("udp.port"));
-
-            System.out.println("Monitoring listener Thread started...");
-
-            byte[] buffer;
-            DatagramPacket packet;
+        // the buffers are reused for every packet, the copy is at most one packet of 1024 bytes
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+        byte[] bytes = new byte[buffer.capacity()];
 
+        try {
             while (!stopFlag.get()) {
-                buffer = new byte[1024];
-                // create a datagram packet of specified length (buffer.length)
-                packet = new DatagramPacket(buffer, buffer.length);
+                buffer.clear();
 
                 // wait for incoming packets from client
-                socket.receive(packet);
-                // get the data from the packet
-                String request = new String(packet.getData());
+                channel.receive(buffer);
 
-                // split into server and user parts
-                String[] parts = request.split(" ");
+                buffer.flip();
+                int length = buffer.remaining();
+                buffer.get(bytes, 0, length);
 
-                if (parts.length == 2) {
-                    String server = parts[0].trim();
-                    String user = parts[1].trim();
-
-                    if (!users.containsKey(user)) users.put(user, 0);
-                    Integer userCount = users.get(user);
-                    users.put(user, userCount + 1);
-
-                    if (!servers.containsKey(server)) servers.put(server, 0);
-                    Integer serverCount = servers.get(server);
-                    servers.put(server, serverCount + 1);
-                }
+                count(bytes, length);
             }
 
-        } catch (SocketException e) {
-            // this will be reached when socket gets closed on shutdown
+        } catch (ClosedChannelException e) {
+            // this will be reached when the channel gets closed on shutdown
 
         } catch (IOException e) {
             throw new RuntimeException("Cannot listen on UDP port.", e);
         }
     }
 
+    /**
+     * Counts a packet. It is either a single message of the form "host:port sender", or a batch of lines of the form
+     * "host:port sender count" separated by newlines. The bytes are looked up in the counters without decoding them.
+     */
+    void count(byte[] packet, int length) {
+        int lineStart = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || packet[i] == '\n') {
+                countLine(packet, lineStart, i);
+                lineStart = i + 1;
+            }
+        }
+    }
+
+    private void countLine(byte[] packet, int start, int end) {
+        // trim whitespace (and padding) at both ends
+        while (start < end && (packet[start] & 0xff) <= ' ') start++;
+        while (end > start && (packet[end - 1] & 0xff) <= ' ') end--;
+
+        // split into server, user and the optional count
+        int first = -1;
+        int second = -1;
+        for (int i = start; i < end; i++) {
+            if (packet[i] == ' ') {
+                if (first < 0) first = i;
+                else if (second < 0) second = i;
+                else return;
+            }
+        }
+        if (first < 0) return;
+
+        long count = 1;
+        int userEnd = end;
+        if (second >= 0) {
+            count = parseCount(packet, second + 1, end);
+            if (count <= 0) return;
+            userEnd = second;
+        }
+        if (userEnd == first + 1) return;
+
+        servers.add(packet, start, first - start, count);
+        users.add(packet, first + 1, userEnd - first - 1, count);
+    }
+
+    // the count of a batch line, -1 if it is not a number
+    private static long parseCount(byte[] packet, int start, int end) {
+        if (start == end || end - start > 18) return -1;
+
+        long count = 0;
+        for (int i = start; i < end; i++) {
+            if (packet[i] < '0' || packet[i] > '9') return -1;
+            count = count * 10 + (packet[i] - '0');
+        }
+        return count;
+    }
+
     public void shutdown() {
-        socket.close();
         stopFlag.set(true);
     }
 }
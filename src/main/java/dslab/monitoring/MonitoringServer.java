@@ -6,19 +6,27 @@ import at.ac.tuwien.dsg.orvell.annotation.Command;
 import dslab.ComponentFactory;
 import dslab.util.Config;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
-import java.util.HashMap;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 public class MonitoringServer implements IMonitoringServer {
 
     private final Config config;
     private final Shell shell;
 
-    private ListenerThread listenerThread;
+    private DatagramChannel channel;
+    private final List<ListenerThread> listenerThreads = new ArrayList<>();
 
-    private final HashMap<String, Integer> users;
-    private final HashMap<String, Integer> servers;
+    // written by the listener thread and read by the shell commands concurrently
+    private final Counters users;
+    private final Counters servers;
 
     /**
      * Creates a new server instance.
@@ -32,8 +40,18 @@ public class MonitoringServer implements IMonitoringServer {
         this.config = config;
         this.shell = new Shell(in, out);
 
-        this.users = new HashMap<>();
-        this.servers = new HashMap<>();
+        // there are only a few transfer servers, but the senders can be countless: in sketch mode only the heaviest
+        // senders are tracked, in bounded memory
+        if (config.containsKey("monitoring.mode") && config.getString("monitoring.mode").equals("sketch")) {
+            this.users = new HeavyHitters(
+                    config.containsKey("monitoring.sketch.epsilon") ? Double.parseDouble(config.getString("monitoring.sketch.epsilon")) : 0.0001,
+                    config.containsKey("monitoring.sketch.delta") ? Double.parseDouble(config.getString("monitoring.sketch.delta")) : 0.01,
+                    config.containsKey("monitoring.sketch.capacity") ? config.getInt("monitoring.sketch.capacity") : 1000
+            );
+        } else {
+            this.users = new CounterStore();
+        }
+        this.servers = new CounterStore();
 
         shell.register(this);
         shell.setPrompt(componentId + "> ");
@@ -41,8 +59,23 @@ public class MonitoringServer implements IMonitoringServer {
 
     @Override
     public void run() {
-        listenerThread = new ListenerThread(config, users, servers);
-        listenerThread.start();
+        try {
+            channel = DatagramChannel.open();
+            // a larger receive buffer absorbs bursts of packets while the listeners are busy
+            if (config.containsKey("udp.receive.buffer")) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, config.getInt("udp.receive.buffer"));
+            }
+            channel.bind(new InetSocketAddress(config.getInt("udp.port")));
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot listen on UDP port.", e);
+        }
+
+        int threads = config.containsKey("udp.threads") ? config.getInt("udp.threads") : 1;
+        for (int i = 0; i < threads; i++) {
+            ListenerThread listenerThread = new ListenerThread(channel, users, servers);
+            listenerThread.start();
+            listenerThreads.add(listenerThread);
+        }
 
         shell.run();
 
@@ -52,16 +85,54 @@ public class MonitoringServer implements IMonitoringServer {
     @Override
     @Command
     public void addresses() {
-        for (String user : users.keySet()) {
-            shell.out().println(user + " " + users.get(user));
+        for (Map.Entry<String, Long> user : users.snapshot().entrySet()) {
+            shell.out().println(user.getKey() + " " + user.getValue());
         }
     }
 
     @Override
     @Command
     public void servers() {
-        for (String server : servers.keySet()) {
-            shell.out().println(server + " " + servers.get(server));
+        for (Map.Entry<String, Long> server : servers.snapshot().entrySet()) {
+            shell.out().println(server.getKey() + " " + server.getValue());
+        }
+    }
+
+    /**
+     * Prints the messages per second, minute and hour of every transfer server that sent messages in the last hour.
+     */
+    @Command(name = "server-rates")
+    public void serverRates() {
+        printRates(servers);
+    }
+
+    /**
+     * Prints the messages per second, minute and hour of every sender that sent messages in the last hour.
+     */
+    @Command(name = "address-rates")
+    public void addressRates() {
+        printRates(users);
+    }
+
+    /**
+     * Prints the k senders with the most messages, highest first.
+     *
+     * @param k the number of senders
+     */
+    @Command
+    public void top(int k) {
+        for (Map.Entry<String, Long> user : users.top(k)) {
+            shell.out().println(user.getKey() + " " + user.getValue());
+        }
+        if (users.errorBound() > 0) {
+            shell.out().println("counts are estimates, at most " + users.errorBound() + " too high");
+        }
+    }
+
+    private void printRates(Counters store) {
+        for (Map.Entry<String, Counters.Rates> entry : store.rates().entrySet()) {
+            Counters.Rates rates = entry.getValue();
+            shell.out().println(entry.getKey() + " " + rates.perSecond + "/s " + rates.perMinute + "/min " + rates.perHour + "/h");
         }
     }
 
@@ -70,7 +141,13 @@ public class MonitoringServer implements IMonitoringServer {
     public void shutdown() {
         System.out.println("Shutting down Monitoring server");
 
-        listenerThread.shutdown();
+        for (ListenerThread listenerThread : listenerThreads) listenerThread.shutdown();
+        try {
+            // wakes up the listeners that wait for a packet
+            channel.close();
+        } catch (IOException e) {
+            // Ignored because we cannot handle it
+        }
 
         throw new StopShellException();
     }
@@ -0,0 +1,71 @@
+package dslab.monitoring;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts events in rings of per-second and per-minute buckets, to report how many events happened in the last second,
+ * minute and hour. The rings have a fixed size, so the memory used per key does not grow over time.
+ * Adding an event is lock free, a bucket that still holds an older second (or minute) is reset by the first event of
+ * its new second.
+ */
+class RateWindow {
+
+    private static final int SECONDS = 60;
+    private static final int MINUTES = 60;
+
+    // a bucket holds the number of its second (or minute) in the upper bits and the count in the lower bits
+    private static final int COUNT_BITS = 40;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final long TIME_MASK = (1L << (64 - COUNT_BITS)) - 1;
+
+    private final AtomicLongArray seconds = new AtomicLongArray(SECONDS);
+    private final AtomicLongArray minutes = new AtomicLongArray(MINUTES);
+
+    void add(long count, long nowMillis) {
+        add(seconds, nowMillis / 1000, count);
+        add(minutes, nowMillis / 60000, count);
+    }
+
+    /**
+     * @return the events of the last complete second
+     */
+    long lastSecond(long nowMillis) {
+        return count(seconds, nowMillis / 1000 - 1);
+    }
+
+    /**
+     * @return the events of the last 60 seconds, including the current one
+     */
+    long lastMinute(long nowMillis) {
+        long now = nowMillis / 1000;
+        long sum = 0;
+        for (long second = now - SECONDS + 1; second <= now; second++) sum += count(seconds, second);
+        return sum;
+    }
+
+    /**
+     * @return the events of the last 60 minutes, including the current one
+     */
+    long lastHour(long nowMillis) {
+        long now = nowMillis / 60000;
+        long sum = 0;
+        for (long minute = now - MINUTES + 1; minute <= now; minute++) sum += count(minutes, minute);
+        return sum;
+    }
+
+    private static void add(AtomicLongArray ring, long time, long count) {
+        int index = (int) (time % ring.length());
+        long tag = time & TIME_MASK;
+
+        while (true) {
+            long bucket = ring.get(index);
+            long next = (bucket >>> COUNT_BITS) == tag ? bucket + count : (tag << COUNT_BITS) | count;
+            if (ring.compareAndSet(index, bucket, next)) return;
+        }
+    }
+
+    private static long count(AtomicLongArray ring, long time) {
+        long bucket = ring.get((int) (time % ring.length()));
+        return (bucket >>> COUNT_BITS) == (time & TIME_MASK) ? bucket & COUNT_MASK : 0;
+    }
+}
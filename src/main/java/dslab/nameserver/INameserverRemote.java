@@ -56,4 +56,16 @@ public interface INameserverRemote extends Remote {
      */
     String lookup(String username) throws RemoteException;
 
+    /**
+     * Resolves the address of a mail domain recursively, i.e. the nameserver forwards the remainder of the domain to
+     * the responsible child nameserver itself instead of handing out its reference. For example, if called with
+     * 'vienna.earth' on the remote object of zone 'planet', the call is passed on as 'vienna' to the nameserver of
+     * 'earth.planet', which looks up the mailbox server.
+     *
+     * @param domain the mail domain relative to this zone, e.g. <code>vienna.earth</code>
+     * @return the socket address of the mailbox server's DMTP socket, or <code>null</code> if it does not exist
+     * @throws RemoteException RMI exception (declaration required by RMI)
+     */
+    String resolve(String domain) throws RemoteException;
+
 }
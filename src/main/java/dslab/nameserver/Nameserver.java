@@ -48,7 +48,9 @@ public class Nameserver implements INameserver {
     public void run() {
 
         try {
-            nameserverRemote = new NameserverRemote();
+            nameserverRemote = new NameserverRemote(
+                    config.containsKey("resolve.cache.ttl") ? config.getInt("resolve.cache.ttl") : 60000
+            );
 
             // export own remote object
             INameserverRemote stub = (INameserverRemote) UnicastRemoteObject.exportObject(nameserverRemote, 0);
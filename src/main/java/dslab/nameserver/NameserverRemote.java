@@ -2,6 +2,7 @@ package dslab.nameserver;
 
 import dslab.entity.MailboxEntry;
 import dslab.entity.NameserverEntry;
+import dslab.util.ResolverCache;
 
 import java.rmi.RemoteException;
 import java.util.ArrayList;
@@ -14,9 +15,19 @@ public class NameserverRemote implements INameserverRemote {
     private final ConcurrentHashMap<String, MailboxEntry> addresses;
     private final ConcurrentHashMap<String, NameserverEntry> nameservers;
 
+    // answers of child nameservers to resolve(), mailbox registrations are never removed so only hits are cached
+    private final ResolverCache<String> resolved;
+    private final long resolveCacheTtlMillis;
+
     public NameserverRemote() {
+        this(60000);
+    }
+
+    public NameserverRemote(long resolveCacheTtlMillis) {
         addresses = new ConcurrentHashMap<>();
         nameservers = new ConcurrentHashMap<>();
+        resolved = new ResolverCache<>(1024);
+        this.resolveCacheTtlMillis = resolveCacheTtlMillis;
     }
 
     @Override
@@ -98,6 +109,31 @@ public class NameserverRemote implements INameserverRemote {
         else throw new RemoteException("No address for domain " + domain + " found!");
     }
 
+    @Override
+    public String resolve(String domain) throws RemoteException {
+        String[] domainParts = domain.split("\\.");
+
+        // leaf zone reached, the mailbox server is registered here
+        if (domainParts.length == 1) {
+            MailboxEntry entry = addresses.get(domain);
+            return entry == null ? null : entry.getAddress();
+        }
+
+        ResolverCache.Entry<String> cached = resolved.get(domain);
+        if (cached != null) return cached.getValue();
+
+        String top = domainParts[domainParts.length - 1];
+        String remaining = String.join(".", Arrays.copyOf(domainParts, domainParts.length - 1));
+
+        NameserverEntry child = nameservers.get(top);
+        if (child == null) return null;
+
+        String address = child.getRemote().resolve(remaining);
+        if (address != null) resolved.put(domain, address, resolveCacheTtlMillis);
+
+        return address;
+    }
+
     public List<MailboxEntry> getAddressesList() {
         return new ArrayList<>(addresses.values());
     }
@@ -1,6 +1,7 @@
 package dslab.protocol.dmap;
 
 import dslab.encryption.AES;
+import dslab.encryption.AESMode;
 import dslab.encryption.ClientChallenge;
 import dslab.encryption.RSA;
 import dslab.encryption.RSAMode;
@@ -12,7 +13,7 @@ import dslab.protocol.dmap.exception.DMAPErrorException;
 import dslab.protocol.dmap.exception.DMAPTerminateConnectionException;
 import dslab.util.Base64Util;
 
-import java.util.List;
+import java.util.Iterator;
 
 /**
  * Represents the DMAP2.0 protocol. It is used to communicate with the mailbox server.
@@ -40,7 +41,15 @@ public class DMAP {
         this.componentId = componentId;
     }
 
-    public String processInput(String input) throws DMAPErrorException {
+    /**
+     * Processes a line of input. Multi-line responses (list, show) write their records to the given writer as they
+     * are produced, the returned line ends the response.
+     *
+     * @param input the line received from the client, null when the connection was just accepted
+     * @param out   the writer for the records of multi-line responses
+     * @return the (final) line of the response, or null if nothing has to be sent
+     */
+    public String processInput(String input, DMAPResponseWriter out) throws DMAPErrorException {
         String output;
 
         // When secured (encrypted) we need to decrypt the input first
@@ -63,7 +72,7 @@ public class DMAP {
             ClientChallenge challenge = new ClientChallenge(decryptedChallenge);
 
             // Use the challenge to create the AES encryption and decryption objects
-            this.aes = new AES(challenge.getSecret(), challenge.getIv());
+            this.aes = new AES(challenge.getSecret(), challenge.getIv(), AESMode.SERVER);
 
             // Reply to the client with the received challenge, but now encrypted with the shared secret key (AES)
             output = Base64Util.getInstance().encode(aes.encrypt(String.format("ok %s", Base64Util.getInstance().encode(challenge.getChallenge())).getBytes()));
@@ -72,6 +81,7 @@ public class DMAP {
             String response = new String(aes.decrypt(Base64Util.getInstance().decode(input)));
             if (response.startsWith("ok")) {
                 isSecure = true;
+                out.secure(aes);
             }
             output = null;
             state = DMAPStates.LOGGED_OUT;
@@ -98,16 +108,28 @@ public class DMAP {
             } else {
                 throw new DMAPErrorException(isSecure ? Base64Util.getInstance().encode(aes.encrypt(String.format("error already logged in with user %s", loggedInUser).getBytes())) : String.format("error already logged in with user %s", loggedInUser));
             }
-        } else if (input.equals("list")) {
+        } else if (input.equals("list") || input.startsWith("list ")) {
             if (state == DMAPStates.LOGGED_IN) {
-                StringBuilder list = new StringBuilder();
-                List<Message> messages = MessageStorageSingleton.getInstance().listMessages(loggedInUser);
-                if (messages.size() > 0) {
-                    for (Message m : messages) {
-                        list.append(m.getId()).append(" ").append(m.getSender()).append(" ").append(m.getSubject()).append("\n");
-                    }
-                    output = list + "ok";
-                } else output = "ok";
+                int offset = 0;
+                int limit = Integer.MAX_VALUE;
+
+                // "list <offset> <limit>" returns a window of the messages in arrival order, "list" all of them
+                String[] parts = input.split(" ");
+                if (parts.length == 3 && parts[1].matches("\\d{1,9}") && parts[2].matches("\\d{1,9}")) {
+                    offset = Integer.parseInt(parts[1]);
+                    limit = Integer.parseInt(parts[2]);
+                } else if (parts.length != 1) {
+                    throw new DMAPErrorException(isSecure ? Base64Util.getInstance().encode(aes.encrypt("error invalid input".getBytes())) : "error invalid input");
+                }
+
+                // the messages are loaded while they are written in a single pass over the mailbox, so a large mailbox
+                // is never held in memory at once
+                Iterator<Message> messages = MessageStorageSingleton.getInstance().iterateMessages(loggedInUser, offset);
+                for (int written = 0; written < limit && messages.hasNext(); written++) {
+                    Message m = messages.next();
+                    out.write(m.getId() + " " + m.getSender() + " " + m.getSubject());
+                }
+                output = "ok";
 
             } else {
                 throw new DMAPErrorException(isSecure ? Base64Util.getInstance().encode(aes.encrypt("error not logged in".getBytes())) : "error not logged in");
@@ -119,25 +141,16 @@ public class DMAP {
 
             try {
                 Message message = MessageStorageSingleton.getInstance().getMessage(loggedInUser, parts[1]);
-                List<String> recipients = message.getRecipients();
-                StringBuilder messageString = new StringBuilder();
-                messageString.append("from ").append(message.getSender()).append("\n");
-                messageString.append("to ");
-                for (int i = 0; i < recipients.size(); i++) {
-                    messageString.append(recipients.get(i));
-                    if (i < (recipients.size() - 1)) messageString.append(", ");
-                }
-                messageString.append("\n");
-
-                messageString
-                        .append("subject ").append(message.getSubject()).append("\n")
-                        .append("data ").append(message.getData()).append("\n");
+                out.write("from " + message.getSender());
+                out.write("to " + String.join(", ", message.getRecipients()));
+                out.write("subject " + message.getSubject());
+                out.write("data " + message.getData());
 
                 if (message.getHash() != null) {
-                    messageString.append("hash ").append(message.getHash()).append("\n");
+                    out.write("hash " + message.getHash());
                 }
 
-                output = messageString + "ok";
+                output = "ok";
 
             } catch (MessageNotFoundException e) {
                 throw new DMAPErrorException(isSecure ? Base64Util.getInstance().encode(aes.encrypt("error unknown message id".getBytes())) : "error unknown message id");
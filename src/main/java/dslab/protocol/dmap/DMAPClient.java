@@ -1,6 +1,7 @@
 package dslab.protocol.dmap;
 
 import dslab.encryption.AES;
+import dslab.encryption.AESMode;
 import dslab.encryption.ClientChallenge;
 import dslab.encryption.RSA;
 import dslab.encryption.RSAMode;
@@ -16,6 +17,9 @@ import java.util.Objects;
 
 public class DMAPClient {
 
+    // Number of pipelined show commands that are sent before their responses are read
+    private static final int PIPELINE_WINDOW = 64;
+
     private final WrappedSocket socket;
 
     // Client challenge + AES configuration
@@ -46,7 +50,7 @@ public class DMAPClient {
         // Discard rsa object since we don't need it anymore
         rsa = null;
         // Create the AES encryption and decryption objects
-        this.aes = new AES(this.clientChallenge.getSecret(), this.clientChallenge.getIv());
+        this.aes = new AES(this.clientChallenge.getSecret(), this.clientChallenge.getIv(), AESMode.CLIENT);
         // Write to the server the encrypted challenge (RSA)
         socket.write(encryptedChallenge);
 
@@ -75,32 +79,61 @@ public class DMAPClient {
     public List<String> list() throws IOException {
         // Send the list (encrypted) command
         socket.write(Base64Util.getInstance().encode(aes.encrypt("list".getBytes())));
-        String response = socket.read();
-        // Decrypt the response
-        response = new String(aes.decrypt(Base64Util.getInstance().decode(response)));
 
-        // Split the response into multiple messages
-        List<String> messages = new ArrayList<>(List.of(response.split("\n")));
+        // Every message is sent as its own (encrypted) line
+        List<String> messages = readRecords();
 
-        if (messages.size() == 1 && messages.get(0).equals("ok")) {
+        if (messages.isEmpty()) {
             return List.of("You have no messages.");
         }
 
-        // If there is at least one message, remove the "ok" termination message
-        messages.remove("ok");
-
         return messages;
     }
 
     public String show(String messageId) throws IOException {
         String command = String.format("show %s", messageId);
         socket.write(Base64Util.getInstance().encode(aes.encrypt(command.getBytes())));
-        String response = socket.read();
-        // Decrypt the response
-        response = new String(aes.decrypt(Base64Util.getInstance().decode(response)));
 
         // Return the message without the "ok" termination message
-        return response.split("\nok")[0];
+        return String.join("\n", readRecords());
+    }
+
+    /**
+     * Shows several messages. The show commands are pipelined: up to a window of commands is in flight, the next
+     * command is sent as soon as a response arrives, instead of waiting for every response before sending the next
+     * command. Fetching many messages therefore takes about one round trip plus the transfer time.
+     *
+     * @param messageIds the ids of the messages
+     * @return the messages in the order of the given ids, null for an id the server answered with an error
+     */
+    public List<String> show(List<String> messageIds) throws IOException {
+        List<String> messages = new ArrayList<>(messageIds.size());
+
+        // the window keeps both socket buffers from filling up while neither side reads
+        int sent = 0;
+        while (sent < Math.min(PIPELINE_WINDOW, messageIds.size())) appendShow(messageIds.get(sent++));
+        socket.flush();
+
+        // The responses arrive in the order of the commands
+        while (messages.size() < messageIds.size()) {
+            try {
+                messages.add(String.join("\n", readRecords()));
+            } catch (DMAPErrorException e) {
+                messages.add(null);
+            }
+
+            if (sent < messageIds.size()) {
+                appendShow(messageIds.get(sent++));
+                socket.flush();
+            }
+        }
+
+        return messages;
+    }
+
+    private void appendShow(String messageId) {
+        String command = String.format("show %s", messageId);
+        socket.append(Base64Util.getInstance().encode(aes.encrypt(command.getBytes())));
     }
 
     public void delete(String messageId) throws IOException {
@@ -131,6 +164,26 @@ public class DMAPClient {
         }
     }
 
+    /**
+     * Reads and decrypts the lines of a multi-line response until the final "ok".
+     *
+     * @return the record lines of the response, without the final "ok"
+     * @throws DMAPErrorException if the server answered with an error instead
+     */
+    private List<String> readRecords() throws IOException {
+        List<String> records = new ArrayList<>();
+        while (true) {
+            String line = socket.read();
+            if (line == null) throw new IOException("Connection closed by the server");
+
+            line = new String(aes.decrypt(Base64Util.getInstance().decode(line)));
+            if (line.equals("ok")) return records;
+            if (line.startsWith("error ")) throw new DMAPErrorException(line);
+
+            records.add(line);
+        }
+    }
+
     public void quit() {
         socket.close();
     }
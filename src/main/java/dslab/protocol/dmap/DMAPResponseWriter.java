@@ -0,0 +1,41 @@
+package dslab.protocol.dmap;
+
+import dslab.encryption.AES;
+import dslab.util.Base64Util;
+import dslab.util.WrappedSocket;
+
+/**
+ * Writes the lines of a DMAP response to the client while they are produced, so a response like a long message list
+ * is never assembled in memory as a whole.
+ * On a secure connection every line is encrypted on its own and sent as one Base64 encoded line, the client decrypts
+ * the lines one by one until it reads the final "ok" (or an error).
+ */
+public class DMAPResponseWriter {
+
+    private final WrappedSocket socket;
+
+    // Set by DMAP once the handshake is complete, until then lines are sent in plain text
+    private AES aes;
+
+    public DMAPResponseWriter(WrappedSocket socket) {
+        this.socket = socket;
+    }
+
+    void secure(AES aes) {
+        this.aes = aes;
+    }
+
+    /**
+     * Writes a record line of the response. The line is buffered by the socket, it is sent together with the final
+     * line of the response that DMAP returns, or earlier once the buffer is full.
+     *
+     * @param line the plain text line
+     */
+    public void write(String line) {
+        socket.append(encode(line));
+    }
+
+    private String encode(String line) {
+        return aes == null ? line : Base64Util.getInstance().encode(aes.encrypt(line.getBytes()));
+    }
+}
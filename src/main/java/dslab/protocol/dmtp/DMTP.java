@@ -142,6 +142,14 @@ public class DMTP {
         return state == DMTPStates.readyToSend;
     }
 
+    /**
+     * Takes back a send that could not be completed, e.g. because the forwarding queue is full. The message stays as it
+     * is, so the client can just send it again.
+     */
+    public void cancelSend() {
+        if (state == DMTPStates.readyToSend) state = DMTPStates.receiving;
+    }
+
     public Message getMessage() {
         return this.message;
     }
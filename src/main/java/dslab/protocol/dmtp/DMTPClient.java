@@ -3,80 +3,178 @@ package dslab.protocol.dmtp;
 import dslab.entity.Domain;
 import dslab.entity.Message;
 import dslab.protocol.dmtp.exception.DMTPClientException;
-import dslab.util.WrappedSocket;
 
 import java.io.IOException;
-import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 
 public class DMTPClient {
-    private final Message message;
+    private final List<Message> messages;
     private final Domain recipientDomain;
 
+    // if set, the connection is taken from and given back to this pool instead of being closed after the message
+    private final DMTPConnectionPool pool;
+
+    // if set, all commands of a message are written at once and the responses are checked afterwards
+    private boolean pipelined = false;
+
+    // the failed messages of the last sendMessages() call that were not rejected but could not reach the server
+    private List<Message> unreachable = List.of();
+
     public DMTPClient(Message message, Domain recipientDomain) {
-        this.message = message;
+        this(message, recipientDomain, null);
+    }
+
+    public DMTPClient(Message message, Domain recipientDomain, DMTPConnectionPool pool) {
+        this(List.of(message), recipientDomain, pool);
+    }
+
+    /**
+     * Creates a client that sends several messages for the same domain, see {@link #sendMessages()}.
+     *
+     * @param messages        the messages to send
+     * @param recipientDomain the domain of the mailbox server
+     * @param pool            the connection pool, or null to open a connection per message
+     */
+    public DMTPClient(List<Message> messages, Domain recipientDomain, DMTPConnectionPool pool) {
+        this.messages = messages;
         this.recipientDomain = recipientDomain;
+        this.pool = pool;
+    }
+
+    public DMTPClient setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+        return this;
     }
 
     // send a DMTP message to next Transfer or Mailbox Server
     public void sendMessage() throws DMTPClientException, IOException {
+        send(messages.get(0));
+    }
 
-        WrappedSocket socket = new WrappedSocket(new Socket(recipientDomain.getHost(), recipientDomain.getPort()));
+    /**
+     * Sends all messages one after the other. Since pooled connections are reused most-recently-used first, the
+     * messages go over a single DMTP session as long as the server accepts them.
+     *
+     * @return the messages that could not be delivered, see {@link #getUnreachable()}
+     */
+    public List<Message> sendMessages() {
+        List<Message> failed = new ArrayList<>();
+        unreachable = List.of();
 
-        String in;
-        DMTPClientStates state = DMTPClientStates.begin;
+        for (int i = 0; i < messages.size(); i++) {
+            try {
+                send(messages.get(i));
+            } catch (DMTPClientException e) {
+                failed.add(messages.get(i));
+            } catch (IOException e) {
+                // server is not reachable, so there is no point in trying the remaining messages
+                unreachable = new ArrayList<>(messages.subList(i, messages.size()));
+                failed.addAll(unreachable);
+                break;
+            }
+        }
 
-        while ((in = socket.read()) != null) {
+        return failed;
+    }
 
-            if (in.equals("ok DMTP")) {
-                if (state == DMTPClientStates.begin) {
-                    socket.write("begin");
-                    state = DMTPClientStates.from;
-                }
-            } else if (in.startsWith("ok")) {
-                String out = "";
-                if (state == DMTPClientStates.from) {
-                    out = "from " + message.getSender();
-                    state = DMTPClientStates.to;
-                } else if (state == DMTPClientStates.to) {
-                    // you should probably check if the server responds with the correct amount
-                    // of recipients after this
-                    out = "to " + String.join(",", message.getRecipients());
-                    state = DMTPClientStates.subject;
-                } else if (state == DMTPClientStates.subject) {
-                    out = "subject " + message.getSubject();
-                    state = DMTPClientStates.data;
-                } else if (state == DMTPClientStates.data) {
-                    out = "data " + message.getData();
-                    state = DMTPClientStates.hash;
-                } else if (state == DMTPClientStates.hash) {
-                    out = "hash " + message.getHash();
-                    state = DMTPClientStates.send;
-                } else if (state == DMTPClientStates.send) {
-                    out = "send";
-                    state = DMTPClientStates.sent;
-                } else if (state == DMTPClientStates.sent) {
-                    out = "quit";
-                    socket.write(out);
-                    socket.close();
-
-                    break;
+    /**
+     * The messages of the last {@link #sendMessages()} call that failed because the server could not be reached or
+     * dropped the connection, as opposed to the messages it rejected. Sending these again later may succeed.
+     *
+     * @return a subset of the failed messages
+     */
+    public List<Message> getUnreachable() {
+        return unreachable;
+    }
+
+    private void send(Message message) throws DMTPClientException, IOException {
+        if (pool == null) {
+            DMTPConnection connection = new DMTPConnection(recipientDomain);
+            try {
+                transmit(connection, message);
+            } finally {
+                connection.close();
+            }
+            return;
+        }
+
+        while (true) {
+            DMTPConnection connection = pool.acquire(recipientDomain);
+
+            try {
+                transmit(connection, message);
+                pool.release(connection);
+                return;
+
+            } catch (DMTPClientException e) {
+                // the session is somewhere in the middle of a message, don't reuse it
+                pool.invalidate(connection);
+                throw e;
+
+            } catch (IOException e) {
+                pool.invalidate(connection);
+
+                // a pooled connection may have been closed by the server while it was idle, retry with the next one
+                // as long as the server did not answer anything, errors on a fresh connection are passed on
+                if (!connection.isReused() || connection.hasResponded()) throw e;
+
+            } catch (RuntimeException e) {
+                // the connection has to go back to the pool either way, or the pool runs out of connections
+                pool.invalidate(connection);
+                throw e;
+            }
+        }
+    }
+
+    private void transmit(DMTPConnection connection, Message message) throws DMTPClientException, IOException {
+        List<String> commands = List.of(
+                "begin",
+                "from " + message.getSender(),
+                "to " + String.join(",", message.getRecipients()),
+                "subject " + message.getSubject(),
+                "data " + message.getData(),
+                "hash " + message.getHash(),
+                "send"
+        );
+
+        if (pipelined) {
+            // the server answers every command, even after an error, so all responses can be read in order
+            List<String> responses = connection.exchangeAll(commands);
+
+            // the server accepted the send, so the message must not be reported as failed and bounced anymore
+            if (responses.get(commands.size() - 1).startsWith("ok")) {
+                if (parseRecipientCount(responses.get(2)) < 1) {
+                    System.out.println("Mailbox server of " + recipientDomain.getName()
+                            + " accepted a message without local recipients");
                 }
+                return;
+            }
 
-                socket.write(out);
-            } else throw new DMTPClientException("Error forwarding message to " + recipientDomain.getName());
+            for (int i = 0; i < commands.size(); i++) {
+                checkResponse(commands.get(i), responses.get(i));
+            }
+        } else {
+            for (String command : commands) {
+                checkResponse(command, connection.exchange(command));
+            }
         }
     }
-}
 
-enum DMTPClientStates {
-    waiting,
-    begin,
-    from,
-    to,
-    subject,
-    data,
-    hash,
-    send,
-    sent,
-    quit
-}
\ No newline at end of file
+    private void checkResponse(String command, String response) throws DMTPClientException {
+        if (!response.startsWith("ok"))
+            throw new DMTPClientException("Error forwarding message to " + recipientDomain.getName());
+
+        // "to" is answered with the number of recipients the server is responsible for, there has to be at least one
+        if (command.startsWith("to ") && parseRecipientCount(response) < 1)
+            throw new DMTPClientException("Error forwarding message to " + recipientDomain.getName() + ": no recipients accepted");
+    }
+
+    private static int parseRecipientCount(String response) {
+        try {
+            return Integer.parseInt(response.substring(2).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package dslab.protocol.dmtp;
+
+import dslab.entity.Domain;
+import dslab.util.WrappedSocket;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An open DMTP session to a transfer or mailbox server which already received the "ok DMTP" greeting. Between two
+ * messages the session stays in the state after "send", so the next message can start with "begin" right away.
+ */
+public class DMTPConnection {
+    private final Domain domain;
+    private final WrappedSocket socket;
+
+    // number of messages sent over this connection
+    private int uses = 0;
+    // number of responses received for the current message
+    private int responses = 0;
+    private long lastUsed;
+
+    DMTPConnection(Domain domain) throws IOException {
+        this.domain = domain;
+        this.socket = new WrappedSocket(new Socket(domain.getHost(), domain.getPort()));
+
+        String greeting = socket.read();
+        if (greeting == null || !greeting.startsWith("ok DMTP")) {
+            socket.close();
+            throw new IOException("Unexpected greeting from " + domain.getName() + ": " + greeting);
+        }
+
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Writes a single command and reads the matching response.
+     *
+     * @param command the command to write
+     * @return the response of the server
+     * @throws IOException if the connection was closed by the server
+     */
+    String exchange(String command) throws IOException {
+        socket.write(command);
+
+        return readResponse();
+    }
+
+    /**
+     * Writes all commands with a single flush and then reads one response per command, in order.
+     *
+     * @param commands the commands to write
+     * @return the responses of the server
+     * @throws IOException if the connection was closed by the server
+     */
+    List<String> exchangeAll(List<String> commands) throws IOException {
+        for (String command : commands) {
+            socket.append(command);
+        }
+        socket.flush();
+
+        List<String> results = new ArrayList<>(commands.size());
+        for (int i = 0; i < commands.size(); i++) {
+            results.add(readResponse());
+        }
+        return results;
+    }
+
+    private String readResponse() throws IOException {
+        String response = socket.read();
+        if (response == null) throw new IOException("Connection closed by " + domain.getName());
+
+        responses++;
+        return response;
+    }
+
+    Domain getDomain() {
+        return domain;
+    }
+
+    boolean isReused() {
+        return uses > 0;
+    }
+
+    // false as long as the server did not answer anything regarding the current message
+    boolean hasResponded() {
+        return responses > 0;
+    }
+
+    void markUsed() {
+        uses++;
+        responses = 0;
+        lastUsed = System.currentTimeMillis();
+    }
+
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    boolean isAlive() {
+        return socket.isAlive();
+    }
+
+    void close() {
+        if (!socket.isClosed()) socket.write("quit");
+        socket.close();
+    }
+}
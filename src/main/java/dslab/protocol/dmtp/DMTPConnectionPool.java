@@ -0,0 +1,177 @@
+package dslab.protocol.dmtp;
+
+import dslab.entity.Domain;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps DMTP sessions to other servers open, so that many messages can be sent over one connection with repeated
+ * begin ... send sequences instead of connecting once per message.
+ * Connections are pooled per host and port of the {@link Domain}.
+ */
+public class DMTPConnectionPool {
+    private static volatile DMTPConnectionPool INSTANCE;
+
+    // connections that were idle for a shorter time are reused without probing them first
+    private static final long VALIDATE_AFTER_MILLIS = 1000;
+
+    // maximum number of connections (idle and in use) per host
+    private int maxPerHost = 4;
+    // idle connections are closed after this time
+    private long idleTimeoutMillis = 30000;
+    // whether clients using this pool should pipeline their commands
+    private boolean pipelining = false;
+
+    private final ConcurrentHashMap<String, HostPool> pools;
+    private ScheduledExecutorService evictor;
+
+    private DMTPConnectionPool() {
+        this.pools = new ConcurrentHashMap<>();
+    }
+
+    public static synchronized DMTPConnectionPool getInstance() {
+        if (INSTANCE == null) INSTANCE = new DMTPConnectionPool();
+
+        return INSTANCE;
+    }
+
+    public synchronized void setup(int maxPerHost, long idleTimeoutMillis, boolean pipelining) {
+        this.maxPerHost = maxPerHost;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.pipelining = pipelining;
+
+        if (evictor == null) {
+            evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "dmtp-pool-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            long period = Math.max(idleTimeoutMillis / 2, 100);
+            evictor.scheduleAtFixedRate(this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public boolean isPipelining() {
+        return pipelining;
+    }
+
+    /**
+     * Returns an idle connection to the given domain or opens a new one. Blocks while the maximum number of
+     * connections to this host is in use.
+     *
+     * @param domain the domain to connect to
+     * @return an open connection, has to be given back with {@link #release} or {@link #invalidate}
+     * @throws IOException if no new connection could be opened
+     */
+    public DMTPConnection acquire(Domain domain) throws IOException {
+        HostPool pool = pools.computeIfAbsent(key(domain), key -> new HostPool(maxPerHost));
+
+        try {
+            pool.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to " + domain.getName());
+        }
+
+        DMTPConnection connection;
+        while ((connection = pool.idle.pollFirst()) != null) {
+            // health check before reuse, the server might have closed the connection in the meantime
+            if (!isExpired(connection) && (!needsValidation(connection) || connection.isAlive())) return connection;
+
+            connection.close();
+        }
+
+        try {
+            return new DMTPConnection(domain);
+        } catch (IOException e) {
+            pool.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a connection back to the pool after a message was sent successfully.
+     *
+     * @param connection the connection
+     */
+    public void release(DMTPConnection connection) {
+        HostPool pool = pools.get(key(connection.getDomain()));
+
+        // pool was shut down while the connection was in use
+        if (pool == null) {
+            connection.close();
+            return;
+        }
+
+        connection.markUsed();
+        pool.idle.offerFirst(connection);
+        pool.permits.release();
+    }
+
+    /**
+     * Closes a connection that is in an unknown state, e.g. after an error response or an I/O error.
+     *
+     * @param connection the connection
+     */
+    public void invalidate(DMTPConnection connection) {
+        HostPool pool = pools.get(key(connection.getDomain()));
+
+        connection.close();
+        if (pool != null) pool.permits.release();
+    }
+
+    public synchronized void shutdown() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+
+        for (HostPool pool : pools.values()) {
+            DMTPConnection connection;
+            while ((connection = pool.idle.pollFirst()) != null) {
+                connection.close();
+            }
+        }
+        pools.clear();
+    }
+
+    private void evictIdleConnections() {
+        for (HostPool pool : pools.values()) {
+            for (DMTPConnection connection : pool.idle) {
+                // only close the connection if no other thread acquired it in the meantime
+                if (isExpired(connection) && pool.idle.remove(connection)) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private boolean isExpired(DMTPConnection connection) {
+        return System.currentTimeMillis() - connection.getLastUsed() > idleTimeoutMillis;
+    }
+
+    private static boolean needsValidation(DMTPConnection connection) {
+        return System.currentTimeMillis() - connection.getLastUsed() > VALIDATE_AFTER_MILLIS;
+    }
+
+    private static String key(Domain domain) {
+        return domain.getHost() + ":" + domain.getPort();
+    }
+
+    private static class HostPool {
+        private final Semaphore permits;
+        // used as a stack, so the most recently used connections are reused first and the others can expire
+        private final ConcurrentLinkedDeque<DMTPConnection> idle = new ConcurrentLinkedDeque<>();
+
+        HostPool(int maxConnections) {
+            this.permits = new Semaphore(maxConnections, true);
+        }
+    }
+}
@@ -38,13 +38,18 @@ public class AcceptMessageRunnable implements Runnable {
 
                     //check if message is ready to send after this interaction
                     if (protocol.isMessageReadyToSend()) {
+                        // waits while the forwarding queue is full, the sender has to try again later if it stays full
                         BackgroundTasksSingleton backgroundTasks = BackgroundTasksSingleton.getInstance();
-                        backgroundTasks.submit(new ForwardMessageRunnable(protocol.getMessage()));
+                        if (!backgroundTasks.tryForward(protocol.getMessage(), true)) {
+                            protocol.cancelSend();
+                            output = BackgroundTasksSingleton.BUSY;
+                        }
                     }
 
-                    socket.write(output);
+                    // responses to pipelined commands are flushed together
+                    socket.writeBatched(output);
                 } catch (DMTPErrorException e) {
-                    socket.write(e.getMessage());
+                    socket.writeBatched(e.getMessage());
                 } catch (DMTPTerminateConnectionException e) {
                     socket.write(e.getMessage());
                     close();
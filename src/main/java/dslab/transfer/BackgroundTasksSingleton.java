@@ -1,5 +1,9 @@
 package dslab.transfer;
 
+import dslab.entity.Message;
+import dslab.util.Config;
+import dslab.util.ExecutorFactory;
+
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -7,11 +11,31 @@ import java.util.concurrent.Executors;
 public class BackgroundTasksSingleton {
     private static volatile BackgroundTasksSingleton INSTANCE;
 
-    private final ExecutorService backgroundTasksThreadPool;
+    private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    private static final int DEFAULT_QUEUE_WAIT = 1000;
+    private static final int DEFAULT_BOUNCE_CAPACITY = 1000;
+
+    // response to a send that was rejected because the forwarding queue is full, the client can send again
+    public static final String BUSY = "error server busy, try again later";
+
+    // volatile, so submitting a task does not need a lock
+    private volatile ExecutorService backgroundTasksThreadPool;
+
+    // bounds the messages accepted from DMTP senders that are not forwarded yet; the stage queue and the pool queue
+    // are not bounded themselves, every message in them holds a slot of one of the limiters until it is forwarded
+    private volatile ForwardingLimiter limiter;
+
+    // bounds the error messages generated while forwarding, they never take the slots of the senders
+    private volatile ForwardingLimiter bounceLimiter;
+
+    // only set if forwarding.batch.size is configured, otherwise every message gets its own ForwardMessageRunnable
+    private volatile ForwardingStage forwardingStage;
 
     private BackgroundTasksSingleton() {
         // assign whatever number of threads to forwardingThreadPool
         this.backgroundTasksThreadPool = Executors.newFixedThreadPool(10);
+        this.limiter = new ForwardingLimiter(DEFAULT_QUEUE_CAPACITY, DEFAULT_QUEUE_WAIT);
+        this.bounceLimiter = new ForwardingLimiter(DEFAULT_BOUNCE_CAPACITY, 0);
     }
 
     public static synchronized BackgroundTasksSingleton getInstance() {
@@ -22,11 +46,104 @@ public class BackgroundTasksSingleton {
         return INSTANCE;
     }
 
-    public synchronized void submit(Runnable task) {
+    /**
+     * Replaces the default pool with one matching the executor.mode of the given config. Has to be called on server
+     * startup before the first task is submitted.
+     *
+     * @param config the transfer server config
+     */
+    public synchronized void setup(Config config) {
+        this.backgroundTasksThreadPool.shutdown();
+        this.backgroundTasksThreadPool = ExecutorFactory.newBackgroundExecutor(config, 10);
+        this.limiter = new ForwardingLimiter(
+                config.containsKey("forwarding.queue.capacity") ? config.getInt("forwarding.queue.capacity") : DEFAULT_QUEUE_CAPACITY,
+                config.containsKey("forwarding.queue.wait") ? config.getInt("forwarding.queue.wait") : DEFAULT_QUEUE_WAIT
+        );
+        this.bounceLimiter = new ForwardingLimiter(
+                config.containsKey("forwarding.bounce.capacity") ? config.getInt("forwarding.bounce.capacity") : DEFAULT_BOUNCE_CAPACITY,
+                0
+        );
+
+        int batchSize = config.containsKey("forwarding.batch.size") ? config.getInt("forwarding.batch.size") : 0;
+        if (batchSize > 1 && forwardingStage == null) {
+            long linger = config.containsKey("forwarding.batch.linger") ? config.getInt("forwarding.batch.linger") : 10;
+            forwardingStage = new ForwardingStage(batchSize, linger);
+            forwardingStage.start();
+        }
+    }
+
+    /**
+     * Hands a message accepted from a DMTP sender over for forwarding, if there is room in the forwarding queue.
+     * If the queue is full, the caller waits up to forwarding.queue.wait milliseconds for a free slot.
+     *
+     * @param message the message to forward
+     * @param mayWait false if the caller must not block
+     * @return false if the queue is full and the sender should try again later
+     */
+    public boolean tryForward(Message message, boolean mayWait) {
+        ForwardingLimiter limiter = this.limiter;
+        if (!limiter.acquire(mayWait)) return false;
+
+        forward(message, limiter);
+        return true;
+    }
+
+    /**
+     * Hands a message over for forwarding to the mailbox servers of its recipients. Used for the error messages that
+     * are generated while forwarding. These never wait, since the forwarding tasks that generate them are the ones
+     * that free the slots; an error message that finds all forwarding.bounce.capacity slots taken is dropped.
+     *
+     * @param message the message to forward
+     */
+    public void forward(Message message) {
+        ForwardingLimiter limiter = this.bounceLimiter;
+        if (!limiter.acquire(false)) {
+            System.out.println("Dropping error message to " + message.getRecipients() + ", too many error messages are waiting to be forwarded");
+            return;
+        }
+
+        forward(message, limiter);
+    }
+
+    // the slot is freed once the message was forwarded, or right away if it cannot be handed over
+    private void forward(Message message, ForwardingLimiter limiter) {
+        ForwardingStage stage = this.forwardingStage;
+        try {
+            if (stage != null) stage.enqueue(message, limiter);
+            else submit(new ForwardMessageRunnable(message), limiter);
+        } catch (RuntimeException e) {
+            limiter.release(1);
+            throw e;
+        }
+    }
+
+    public void submit(Runnable task) {
         this.backgroundTasksThreadPool.submit(task);
     }
 
+    // frees the slot of the forwarded message once the task is done
+    private void submit(Runnable task, ForwardingLimiter limiter) {
+        submit(() -> {
+            try {
+                task.run();
+            } finally {
+                limiter.release(1);
+            }
+        });
+    }
+
+    ForwardingLimiter getLimiter() {
+        return limiter;
+    }
+
+    ForwardingLimiter getBounceLimiter() {
+        return bounceLimiter;
+    }
+
     public synchronized void shutdown() {
+        // the stage hands its remaining messages to the pool before it stops, a new setup starts a new stage
+        if (this.forwardingStage != null) this.forwardingStage.shutdown();
+        this.forwardingStage = null;
         this.backgroundTasksThreadPool.shutdown();
     }
 }
@@ -0,0 +1,159 @@
+package dslab.transfer;
+
+import dslab.protocol.dmtp.DMTP;
+import dslab.protocol.dmtp.exception.DMTPErrorException;
+import dslab.protocol.dmtp.exception.DMTPTerminateConnectionException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+
+/**
+ * Non-blocking counterpart of {@link AcceptMessageRunnable}. One session is attached to the {@link SelectionKey} of
+ * every accepted DMTP connection and is driven by a {@link NioEventLoop}: received bytes are split into lines and fed
+ * into the {@link DMTP} state machine, responses are queued and written once the channel is writable.
+ */
+public class DMTPChannelSession {
+
+    private static final Charset CHARSET = Charset.defaultCharset();
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(CHARSET);
+
+    // maximum length of a command line in bytes, the session is closed if a client exceeds it
+    static final int MAX_LINE_LENGTH = 1024 * 1024;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+
+    // validator for transfer returns true for every recipient
+    private final DMTP protocol = new DMTP((String recipient) -> true);
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+    // holds the bytes of a line that has not been terminated yet
+    private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+    private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+
+    // set after "quit" or a protocol error, the channel is closed as soon as all pending responses are written
+    private boolean closeAfterWrite = false;
+
+    public DMTPChannelSession(SocketChannel channel, SelectionKey key) {
+        this.channel = channel;
+        this.key = key;
+    }
+
+    /**
+     * Sends the DMTP greeting, has to be called once after the channel got registered.
+     */
+    public void start() throws IOException {
+        System.out.println("TransferServer DMTP channel accepted!");
+        write(protocol.processInput(null));
+        flush();
+    }
+
+    public void onReadable() throws IOException {
+        int read = channel.read(readBuffer);
+
+        if (read < 0) {
+            close();
+            return;
+        }
+
+        readBuffer.flip();
+        while (readBuffer.hasRemaining() && !closeAfterWrite) {
+            byte b = readBuffer.get();
+            if (b == '\n') {
+                handleLine(decodeLine());
+            } else if (lineBuffer.size() >= MAX_LINE_LENGTH) {
+                // a client that never ends its line must not be able to fill up the heap
+                lineBuffer.reset();
+                write("error line too long");
+                closeAfterWrite = true;
+            } else {
+                lineBuffer.write(b);
+            }
+        }
+        readBuffer.clear();
+
+        flush();
+    }
+
+    public void onWritable() throws IOException {
+        flush();
+    }
+
+    private void handleLine(String message) {
+        try {
+            String output = protocol.processInput(message);
+
+            //check if message is ready to send after this interaction
+            if (protocol.isMessageReadyToSend()) {
+                // a selector thread must not block, the sender is told to try again right away if the queue is full
+                BackgroundTasksSingleton backgroundTasks = BackgroundTasksSingleton.getInstance();
+                if (!backgroundTasks.tryForward(protocol.getMessage(), false)) {
+                    protocol.cancelSend();
+                    output = BackgroundTasksSingleton.BUSY;
+                }
+            }
+
+            write(output);
+        } catch (DMTPErrorException e) {
+            write(e.getMessage());
+        } catch (DMTPTerminateConnectionException e) {
+            write(e.getMessage());
+            closeAfterWrite = true;
+        }
+    }
+
+    private String decodeLine() {
+        byte[] bytes = lineBuffer.toByteArray();
+        lineBuffer.reset();
+
+        // same line semantics as BufferedReader.readLine(): strip a trailing carriage return
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') length--;
+
+        return new String(bytes, 0, length, CHARSET);
+    }
+
+    private void write(String text) {
+        byte[] bytes = text.getBytes(CHARSET);
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length + LINE_SEPARATOR.length);
+        buffer.put(bytes).put(LINE_SEPARATOR).flip();
+
+        pendingWrites.add(buffer);
+    }
+
+    private void flush() throws IOException {
+        while (!pendingWrites.isEmpty()) {
+            ByteBuffer buffer = pendingWrites.peek();
+            channel.write(buffer);
+
+            // socket send buffer is full, wait until the selector reports the channel as writable again
+            if (buffer.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+                return;
+            }
+            pendingWrites.poll();
+        }
+
+        if (closeAfterWrite) {
+            close();
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    public void close() {
+        System.out.println("Closing DMTPChannelSession!");
+        key.cancel();
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignored because we cannot handle it
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package dslab.transfer;
+
+import dslab.entity.Domain;
+import dslab.entity.Message;
+import dslab.protocol.dmtp.DMTPClient;
+import dslab.protocol.dmtp.DMTPConnectionPool;
+import dslab.util.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Retries the deliveries that failed because a mailbox server could not be reached, instead of bouncing the messages
+ * right away. The messages are kept per domain and all messages of a domain are retried together, with a single timer
+ * per domain. The delay starts at delivery.retry.initial milliseconds and doubles after every failed attempt, up to
+ * delivery.retry.max. A message is only bounced to its sender once its first failed attempt is delivery.retry.max.age
+ * milliseconds ago. At most delivery.retry.capacity messages wait for a retry, further ones are bounced right away, since
+ * the forwarding queue already freed their slots.
+ */
+public class DeliveryRetryScheduler {
+    private static volatile DeliveryRetryScheduler INSTANCE;
+
+    private static final int DEFAULT_INITIAL_BACKOFF = 1000;
+    private static final int DEFAULT_MAX_BACKOFF = 60000;
+    private static final int DEFAULT_MAX_AGE = 600000;
+    private static final int DEFAULT_CAPACITY = 10000;
+
+    // domains that are retried at the same time, a server that hangs only blocks its own retries
+    private static final int RETRY_THREADS = 4;
+
+    private volatile long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private volatile long maxBackoff = DEFAULT_MAX_BACKOFF;
+    private volatile long maxAge = DEFAULT_MAX_AGE;
+
+    // fires the timers and runs the retries, independent of the forwarding pool
+    private volatile ScheduledExecutorService timer;
+
+    private final ConcurrentHashMap<String, DomainRetries> domains = new ConcurrentHashMap<>();
+
+    // bounds the messages waiting for a retry over all domains
+    private volatile ForwardingLimiter backlog = new ForwardingLimiter(DEFAULT_CAPACITY, 0);
+
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    DeliveryRetryScheduler() {
+        this.timer = newTimer();
+    }
+
+    public static synchronized DeliveryRetryScheduler getInstance() {
+        if (INSTANCE == null) {
+            INSTANCE = new DeliveryRetryScheduler();
+        }
+
+        return INSTANCE;
+    }
+
+    /**
+     * Applies the delivery.retry settings of the given config. Has to be called on server startup.
+     *
+     * @param config the transfer server config
+     */
+    public synchronized void setup(Config config) {
+        configure(
+                config.containsKey("delivery.retry.initial") ? config.getInt("delivery.retry.initial") : DEFAULT_INITIAL_BACKOFF,
+                config.containsKey("delivery.retry.max") ? config.getInt("delivery.retry.max") : DEFAULT_MAX_BACKOFF,
+                config.containsKey("delivery.retry.max.age") ? config.getInt("delivery.retry.max.age") : DEFAULT_MAX_AGE,
+                config.containsKey("delivery.retry.capacity") ? config.getInt("delivery.retry.capacity") : DEFAULT_CAPACITY
+        );
+    }
+
+    synchronized void configure(long initialBackoff, long maxBackoff, long maxAge) {
+        configure(initialBackoff, maxBackoff, maxAge, DEFAULT_CAPACITY);
+    }
+
+    synchronized void configure(long initialBackoff, long maxBackoff, long maxAge, int capacity) {
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.maxAge = maxAge;
+        // messages that already wait free their slots in the limiter they took them from
+        this.backlog = new ForwardingLimiter(capacity, 0);
+
+        // a previous server in the same JVM may have shut the timer down
+        if (timer.isShutdown()) timer = newTimer();
+    }
+
+    /**
+     * Schedules messages whose mailbox server could not be reached for another attempt. If a retry of the domain is
+     * already scheduled, the messages join it. Messages that find the backlog full are bounced right away.
+     *
+     * @param domain   the domain of the mailbox server
+     * @param messages the messages that could not be delivered
+     */
+    public void schedule(Domain domain, List<Message> messages) {
+        // no retries configured, bounce right away
+        if (maxAge <= 0) {
+            for (Message message : messages) ForwardMessageRunnable.generateMessageNotDeliverableErrorMessage(message);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        ForwardingLimiter backlog = this.backlog;
+        DomainRetries retries = domains.computeIfAbsent(domain.getName(), name -> new DomainRetries());
+
+        synchronized (retries) {
+            // the latest lookup wins, in case the mailbox server moved
+            retries.domain = domain;
+            for (Message message : messages) {
+                if (backlog.acquire(false)) retries.pending.add(new Pending(message, now, backlog));
+                else ForwardMessageRunnable.generateMessageNotDeliverableErrorMessage(message);
+            }
+
+            if (!retries.pending.isEmpty() && !retries.active) {
+                retries.active = true;
+                scheduleAttempt(retries);
+            }
+        }
+    }
+
+    // has to be called while holding the lock of the domain
+    private void scheduleAttempt(DomainRetries retries) {
+        long delay = backoff(initialBackoff, maxBackoff, retries.attempts);
+        try {
+            timer.schedule(() -> attempt(retries), delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // shut down, the messages are dropped just like the ones of a scheduled retry
+            for (Pending pending : retries.pending) pending.backlog.release(1);
+            retries.pending.clear();
+            retries.active = false;
+            retries.attempts = 0;
+        }
+    }
+
+    private void attempt(DomainRetries retries) {
+        Domain domain;
+        List<Pending> batch;
+        synchronized (retries) {
+            domain = retries.domain;
+            batch = new ArrayList<>(retries.pending);
+            retries.pending.clear();
+        }
+
+        // until the attempt got an answer, all messages are attempted again
+        List<Pending> again = new ArrayList<>(batch);
+        boolean reached = false;
+        try {
+            List<Message> messages = new ArrayList<>(batch.size());
+            for (Pending pending : batch) messages.add(pending.message);
+            retried.add(messages.size());
+
+            DMTPConnectionPool pool = DMTPConnectionPool.getInstance();
+            DMTPClient dmtpClient = new DMTPClient(messages, domain, pool).setPipelined(pool.isPipelining());
+
+            Set<Message> failed = new HashSet<>(dmtpClient.sendMessages());
+            Set<Message> unreachable = new HashSet<>(dmtpClient.getUnreachable());
+
+            long now = System.currentTimeMillis();
+            reached = unreachable.size() < batch.size();
+            again.clear();
+
+            for (Pending pending : batch) {
+                if (unreachable.contains(pending.message) && now - pending.firstFailure < maxAge) {
+                    again.add(pending);
+                } else {
+                    finish(pending, !failed.contains(pending.message), unreachable.contains(pending.message));
+                }
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Error retrying messages for domain " + domain.getName() + ": " + e.getMessage());
+
+            // a message that keeps failing this way still expires
+            long now = System.currentTimeMillis();
+            for (Iterator<Pending> iterator = again.iterator(); iterator.hasNext(); ) {
+                Pending pending = iterator.next();
+                if (now - pending.firstFailure >= maxAge) {
+                    iterator.remove();
+                    finish(pending, false, true);
+                }
+            }
+        } finally {
+            synchronized (retries) {
+                // once the server answers again, the next attempt starts over with the shortest delay
+                retries.attempts = reached ? 0 : retries.attempts + 1;
+
+                // messages that failed in the meantime wait for the same attempt, the oldest ones first
+                retries.pending.addAll(0, again);
+
+                if (retries.pending.isEmpty()) {
+                    retries.active = false;
+                    retries.attempts = 0;
+                } else {
+                    scheduleAttempt(retries);
+                }
+            }
+        }
+    }
+
+    // a message leaves the backlog, delivered or bounced; an error while bouncing one does not affect the others
+    private void finish(Pending pending, boolean isDelivered, boolean isExpired) {
+        pending.backlog.release(1);
+        try {
+            if (isDelivered) {
+                delivered.increment();
+                MonitoringSingleton.getInstance().sendMonitoringPacket(pending.message);
+            } else {
+                // rejected by the mailbox server, trying again won't help; or unreachable for too long
+                if (isExpired) expired.increment();
+                ForwardMessageRunnable.generateMessageNotDeliverableErrorMessage(pending.message);
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Error finishing retried message: " + e.getMessage());
+        }
+    }
+
+    // the delay before the given attempt, doubling up to the maximum
+    static long backoff(long initialBackoff, long maxBackoff, int attempts) {
+        return Math.min(initialBackoff << Math.min(attempts, 30), maxBackoff);
+    }
+
+    /**
+     * @return the number of messages waiting for a retry, by domain
+     */
+    public Map<String, Integer> getPending() {
+        Map<String, Integer> pending = new TreeMap<>();
+        for (Map.Entry<String, DomainRetries> entry : domains.entrySet()) {
+            synchronized (entry.getValue()) {
+                if (entry.getValue().active) pending.put(entry.getKey(), entry.getValue().pending.size());
+            }
+        }
+        return pending;
+    }
+
+    public long getRetried() {
+        return retried.sum();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    ForwardingLimiter getBacklog() {
+        return backlog;
+    }
+
+    public synchronized void shutdown() {
+        // messages waiting for a retry are dropped, just like the ones in the forwarding queue
+        timer.shutdownNow();
+    }
+
+    private static ScheduledExecutorService newTimer() {
+        return Executors.newScheduledThreadPool(RETRY_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "delivery-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class DomainRetries {
+        private Domain domain;
+        private final List<Pending> pending = new ArrayList<>();
+        // failed attempts in a row
+        private int attempts = 0;
+        // set while a retry is scheduled or running, messages that fail meanwhile just join the pending ones
+        private boolean active = false;
+    }
+
+    private static class Pending {
+        private final Message message;
+        private final long firstFailure;
+        // the limiter the message holds a slot of while it waits
+        private final ForwardingLimiter backlog;
+
+        private Pending(Message message, long firstFailure, ForwardingLimiter backlog) {
+            this.message = message;
+            this.firstFailure = firstFailure;
+            this.backlog = backlog;
+        }
+    }
+}
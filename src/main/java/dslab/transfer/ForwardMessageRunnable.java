@@ -6,15 +6,16 @@ import dslab.entity.Domain;
 import dslab.entity.ErrorMessage;
 import dslab.entity.Message;
 import dslab.protocol.dmtp.DMTPClient;
+import dslab.protocol.dmtp.DMTPConnectionPool;
 import dslab.protocol.dmtp.exception.DMTPClientException;
 
 import java.io.IOException;
-import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 
 public class ForwardMessageRunnable implements Runnable {
 
@@ -38,35 +39,18 @@ public class ForwardMessageRunnable implements Runnable {
                 recipientDomains.put(domain.getName(), domain);
 
             } catch (DomainNotFoundException e) {
-                // check if message the domain is not found of is an error message
-                // sanity check - an error message should never have a non-existing domain since the recipient is the
-                // sender of an originally failed message
-                if (message.getClass() == Message.class) {
-                    ArrayList<String> errorRecipients = new ArrayList<>();
-                    errorRecipients.add(message.getSender());
-
-                    String hostAddress = "";
-                    try {
-                        hostAddress = InetAddress.getLocalHost().getHostAddress();
-                    } catch (UnknownHostException ex) {
-                        System.out.println("Error getting local host address");
-                    }
-
-                    ErrorMessage errorMessage = new ErrorMessage(
-                            errorRecipients,
-                            "mailer@[" + hostAddress + "]",
-                            "Error delivering message!",
-                            "Error delivering message to " + recipient + "! Domain could not be found."
-                    );
-
-                    BackgroundTasksSingleton.getInstance().submit(new ForwardMessageRunnable(errorMessage));
-                }
+                generateDomainNotFoundErrorMessage(message, recipient);
+            } catch (RuntimeException e) {
+                // nameserver not reachable
+                System.out.println("Error looking up domain of " + recipient + ": " + e.getMessage());
+                generateDomainNotFoundErrorMessage(message, recipient);
             }
         }
 
         // now send a message to every recipient
         for (Domain recipientDomain : recipientDomains.values()) {
-            DMTPClient dmtpClient = new DMTPClient(message, recipientDomain);
+            DMTPConnectionPool pool = DMTPConnectionPool.getInstance();
+            DMTPClient dmtpClient = new DMTPClient(message, recipientDomain, pool).setPipelined(pool.isPipelining());
 
             try {
                 dmtpClient.sendMessage();
@@ -76,15 +60,42 @@ public class ForwardMessageRunnable implements Runnable {
                 // the user arthur will have 2 entries in the monitoring server, as well as this transfer server
                 MonitoringSingleton.getInstance().sendMonitoringPacket(message);
 
-            } catch (DMTPClientException | ConnectException e) {
+            } catch (DMTPClientException e) {
                 generateMessageNotDeliverableErrorMessage(message);
             } catch (IOException e) {
-                //
+                // mailbox server not reachable, it is only bounced if it stays unreachable
+                DeliveryRetryScheduler.getInstance().schedule(recipientDomain, List.of(message));
             }
         }
     }
 
-    private void generateMessageNotDeliverableErrorMessage(Message message) {
+    static void generateDomainNotFoundErrorMessage(Message message, String recipient) {
+        // check if message the domain is not found of is an error message
+        // sanity check - an error message should never have a non-existing domain since the recipient is the
+        // sender of an originally failed message
+        if (message.getClass() == Message.class) {
+            ArrayList<String> errorRecipients = new ArrayList<>();
+            errorRecipients.add(message.getSender());
+
+            String hostAddress = "";
+            try {
+                hostAddress = InetAddress.getLocalHost().getHostAddress();
+            } catch (UnknownHostException ex) {
+                System.out.println("Error getting local host address");
+            }
+
+            ErrorMessage errorMessage = new ErrorMessage(
+                    errorRecipients,
+                    "mailer@[" + hostAddress + "]",
+                    "Error delivering message!",
+                    "Error delivering message to " + recipient + "! Domain could not be found."
+            );
+
+            BackgroundTasksSingleton.getInstance().forward(errorMessage);
+        }
+    }
+
+    static void generateMessageNotDeliverableErrorMessage(Message message) {
         // if message which is NOT already an error message couldn't be forwarded -> create error message and
         // send back to sender
         if (message.getClass() == Message.class) {
@@ -101,7 +112,7 @@ public class ForwardMessageRunnable implements Runnable {
                 System.out.println("Error getting local host address of Transfer Server!");
             }
 
-            BackgroundTasksSingleton.getInstance().submit(new ForwardMessageRunnable(errorMessage));
+            BackgroundTasksSingleton.getInstance().forward(errorMessage);
         }
     }
 }
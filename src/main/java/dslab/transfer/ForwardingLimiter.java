@@ -0,0 +1,106 @@
+package dslab.transfer;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the number of accepted messages that are queued or being forwarded. A DMTP session takes a permit before it
+ * acknowledges a send and the permit is returned once the message was handed to the mailbox servers, so a slow mailbox
+ * server makes the senders wait instead of letting the forwarding queue grow without limit.
+ * Taking and returning a permit is a single CAS as long as permits are available, only senders that have to wait block.
+ */
+class ForwardingLimiter {
+
+    private final int capacity;
+    private final long waitMillis;
+    private final Semaphore permits;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * @param capacity   the maximum number of messages in the forwarding queue
+     * @param waitMillis how long a sender waits at most for a free slot before its message is rejected
+     */
+    ForwardingLimiter(int capacity, long waitMillis) {
+        this.capacity = capacity;
+        this.waitMillis = waitMillis;
+        this.permits = new Semaphore(capacity);
+    }
+
+    /**
+     * Takes a slot in the forwarding queue, waiting up to the configured time if the queue is full.
+     *
+     * @param mayWait false if the caller must not block, e.g. a selector thread
+     * @return true if the message may be forwarded, false if it has to be rejected
+     */
+    boolean acquire(boolean mayWait) {
+        if (permits.tryAcquire()) {
+            accepted.increment();
+            return true;
+        }
+
+        boolean acquired = false;
+        if (mayWait && waitMillis > 0) {
+            long start = System.nanoTime();
+            try {
+                acquired = permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            long waited = System.nanoTime() - start;
+
+            waitNanos.add(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+            delayed.increment();
+        }
+
+        if (acquired) accepted.increment();
+        else rejected.increment();
+        return acquired;
+    }
+
+    /**
+     * Frees the slots of messages that left the forwarding queue.
+     *
+     * @param count the number of messages
+     */
+    void release(int count) {
+        if (count > 0) permits.release(count);
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    // messages that are queued or being forwarded right now
+    int getDepth() {
+        return capacity - permits.availablePermits();
+    }
+
+    long getAccepted() {
+        return accepted.sum();
+    }
+
+    // messages whose sender had to wait for a free slot
+    long getDelayed() {
+        return delayed.sum();
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    long getWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.sum());
+    }
+
+    long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+}
@@ -0,0 +1,208 @@
+package dslab.transfer;
+
+import dslab.dns.DNSSingleton;
+import dslab.dns.DomainNotFoundException;
+import dslab.entity.Domain;
+import dslab.entity.Message;
+import dslab.protocol.dmtp.DMTPClient;
+import dslab.protocol.dmtp.DMTPConnectionPool;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batching alternative to one {@link ForwardMessageRunnable} per message. Accepted messages are queued and drained
+ * in micro-batches of up to {@code batchSize} messages, waiting at most {@code lingerMillis} for a batch to fill up.
+ * The messages of a batch are grouped by recipient domain and every group is sent over a single DMTP session.
+ */
+public class ForwardingStage extends Thread {
+
+    private final int batchSize;
+    private final long lingerMillis;
+
+    private final BlockingQueue<Queued> queue;
+    private final AtomicBoolean stopFlag;
+
+    public ForwardingStage(int batchSize, long lingerMillis) {
+        super("forwarding-stage");
+
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.queue = new LinkedBlockingQueue<>();
+        this.stopFlag = new AtomicBoolean(false);
+    }
+
+    /**
+     * The queue itself is not bounded, the limiter slot the caller took for the message bounds it.
+     *
+     * @param message the message to forward
+     * @param limiter the limiter the message holds a slot of, which is freed once the message was forwarded, or null
+     */
+    void enqueue(Message message, ForwardingLimiter limiter) {
+        queue.add(new Queued(message, limiter));
+    }
+
+    @Override
+    public void run() {
+        List<Queued> batch = new ArrayList<>(batchSize);
+        try {
+            while (!stopFlag.get()) {
+                nextBatch(batch);
+                forwardBatch(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        } catch (InterruptedException e) {
+            // this will be reached when the stage gets interrupted on shutdown
+        }
+
+        // forward what was collected or is still queued, the lookups must not see the interrupt of the shutdown
+        Thread.interrupted();
+        queue.drainTo(batch);
+        if (!batch.isEmpty()) forwardBatch(batch);
+    }
+
+    // blocks until the first message arrives, then collects more until the batch is full or the linger time is over
+    private void nextBatch(List<Queued> batch) throws InterruptedException {
+        batch.add(queue.take());
+
+        long deadline = System.currentTimeMillis() + lingerMillis;
+        while (batch.size() < batchSize) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                queue.drainTo(batch, batchSize - batch.size());
+                break;
+            }
+
+            Queued queued = queue.poll(remaining, TimeUnit.MILLISECONDS);
+            if (queued == null) break;
+            batch.add(queued);
+        }
+    }
+
+    private void forwardBatch(List<Queued> batch) {
+        DNSSingleton dns = DNSSingleton.getInstance();
+
+        // domains resolved for this batch, so every domain is looked up only once
+        HashMap<String, Domain> resolved = new HashMap<>();
+        LinkedHashMap<String, List<Message>> groups = new LinkedHashMap<>();
+
+        for (Queued queued : batch) {
+            Message message = queued.message;
+            for (String recipient : message.getRecipients()) {
+                String domainName = recipient.substring(recipient.indexOf("@") + 1);
+
+                try {
+                    Domain domain = resolved.get(domainName);
+                    if (domain == null) {
+                        domain = dns.lookupDomain(domainName);
+                        resolved.put(domainName, domain);
+                    }
+
+                    List<Message> group = groups.computeIfAbsent(domainName, name -> new ArrayList<>());
+                    // several recipients of the same message can be in the same domain, only send it once
+                    if (group.isEmpty() || group.get(group.size() - 1) != message) group.add(message);
+
+                } catch (DomainNotFoundException e) {
+                    ForwardMessageRunnable.generateDomainNotFoundErrorMessage(message, recipient);
+                } catch (RuntimeException e) {
+                    // nameserver not reachable, don't let this stop the whole stage but don't lose the recipient either
+                    System.out.println("Error looking up domain " + domainName + ": " + e.getMessage());
+                    ForwardMessageRunnable.generateDomainNotFoundErrorMessage(message, recipient);
+                }
+            }
+        }
+
+        // the slots of the batch are freed when the last domain task is done
+        Runnable release = releaseOnLast(batch, groups.size());
+
+        // every domain is served by its own background task, so a slow mailbox server does not delay the others
+        for (Map.Entry<String, List<Message>> group : groups.entrySet()) {
+            Domain domain = resolved.get(group.getKey());
+            Runnable task = () -> {
+                try {
+                    deliver(domain, group.getValue());
+                } finally {
+                    release.run();
+                }
+            };
+
+            try {
+                BackgroundTasksSingleton.getInstance().submit(task);
+            } catch (RejectedExecutionException e) {
+                // the pool is shut down or saturated, deliver on the stage thread so the slots are freed either way
+                task.run();
+            }
+        }
+    }
+
+    // returns a task that frees the slots held by the messages of the batch on its last of the given number of runs
+    private static Runnable releaseOnLast(List<Queued> batch, int runs) {
+        Runnable release = () -> {
+            for (Queued queued : batch) {
+                if (queued.limiter != null) queued.limiter.release(1);
+            }
+        };
+        if (runs == 0) {
+            release.run();
+            return release;
+        }
+
+        AtomicInteger remaining = new AtomicInteger(runs);
+        return () -> {
+            if (remaining.decrementAndGet() == 0) release.run();
+        };
+    }
+
+    private static void deliver(Domain domain, List<Message> messages) {
+        DMTPConnectionPool pool = DMTPConnectionPool.getInstance();
+        DMTPClient dmtpClient = new DMTPClient(messages, domain, pool).setPipelined(pool.isPipelining());
+
+        List<Message> failed = dmtpClient.sendMessages();
+        List<Message> unreachable = dmtpClient.getUnreachable();
+
+        for (Message message : messages) {
+            if (!failed.contains(message)) {
+                MonitoringSingleton.getInstance().sendMonitoringPacket(message);
+            } else if (!unreachable.contains(message)) {
+                ForwardMessageRunnable.generateMessageNotDeliverableErrorMessage(message);
+            }
+        }
+
+        // the mailbox server could not be reached, these are only bounced if it stays unreachable
+        if (!unreachable.isEmpty()) DeliveryRetryScheduler.getInstance().schedule(domain, unreachable);
+    }
+
+    /**
+     * Stops the stage once the queued messages are handed over to the background pool, so the pool has to be shut
+     * down after this.
+     */
+    public void shutdown() {
+        stopFlag.set(true);
+        interrupt();
+
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Queued {
+        private final Message message;
+        private final ForwardingLimiter limiter;
+
+        private Queued(Message message, ForwardingLimiter limiter) {
+            this.message = message;
+            this.limiter = limiter;
+        }
+    }
+}
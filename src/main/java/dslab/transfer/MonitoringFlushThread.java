@@ -0,0 +1,39 @@
+package dslab.transfer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sends the monitoring counts that {@link MonitoringSingleton} aggregated since the last flush, once per interval.
+ */
+public class MonitoringFlushThread extends Thread {
+
+    private final MonitoringSingleton monitoring;
+    private final long intervalMillis;
+    private final AtomicBoolean stopFlag;
+
+    public MonitoringFlushThread(MonitoringSingleton monitoring, long intervalMillis) {
+        super("monitoring-flush");
+        setDaemon(true);
+
+        this.monitoring = monitoring;
+        this.intervalMillis = intervalMillis;
+        this.stopFlag = new AtomicBoolean(false);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopFlag.get()) {
+                Thread.sleep(intervalMillis);
+                monitoring.flush();
+            }
+        } catch (InterruptedException e) {
+            // this will be reached when the thread gets interrupted on shutdown
+        }
+    }
+
+    public void shutdown() {
+        stopFlag.set(true);
+        interrupt();
+    }
+}
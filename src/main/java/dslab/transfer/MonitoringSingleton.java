@@ -2,22 +2,36 @@ package dslab.transfer;
 
 import dslab.entity.Message;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MonitoringSingleton {
     private static volatile MonitoringSingleton INSTANCE;
+
+    // the monitoring server reads datagrams into a buffer of this size
+    private static final int MAX_DATAGRAM_SIZE = 1024;
+
     private String localHostName;
     private int localHostPort;
 
     private String monitoringHostName;
     private int monitoringPort;
+    // resolved once, or again after the monitoring host could not be resolved
+    private volatile InetSocketAddress monitoringAddress;
 
     private boolean started;
 
     private DatagramSocket socket;
 
-    private MonitoringSingleton() {
+    // messages per sender since the last flush, only used if a batch interval is configured
+    private final ConcurrentHashMap<String, Long> pending = new ConcurrentHashMap<>();
+    // null once shutdown started, later messages are sent right away
+    private volatile MonitoringFlushThread flushThread;
+
+    MonitoringSingleton() {
         this.started = false;
     }
 
@@ -27,7 +41,11 @@ public class MonitoringSingleton {
         return INSTANCE;
     }
 
-    public void startSocket(String monitoringHost, int monitoringPort, String hostName, int hostPort) {
+    /**
+     * @param batchIntervalMillis interval in which the counts per sender are aggregated and sent as one batch, 0 sends
+     *                            a packet for every message
+     */
+    public synchronized void startSocket(String monitoringHost, int monitoringPort, String hostName, int hostPort, long batchIntervalMillis) {
         if (!this.started) {
             this.monitoringHostName = monitoringHost;
             this.monitoringPort = monitoringPort;
@@ -39,31 +57,94 @@ public class MonitoringSingleton {
             } catch (SocketException e) {
                 System.out.println("Error opening monitoring udp-socket!");
             }
+
+            if (batchIntervalMillis > 0) {
+                flushThread = new MonitoringFlushThread(this, batchIntervalMillis);
+                flushThread.start();
+            }
             this.started = true;
         }
     }
 
     public void sendMonitoringPacket(Message message) {
         if (this.started) {
+            if (flushThread != null) {
+                pending.merge(message.getSender(), 1L, Long::sum);
+
+                // shutdown started meanwhile and its final flush may have run before the merge, send the count now
+                if (flushThread == null) flush();
+                return;
+            }
+
             String monitoringMessage = localHostName + ":" + localHostPort + " " + message.getSender();
 
             // convert the message to a byte[]
-            byte[] buffer = monitoringMessage.getBytes();
+            byte[] buffer = monitoringMessage.getBytes(StandardCharsets.UTF_8);
+            send(buffer, buffer.length);
+        }
+    }
 
-            // create the datagram packet with all the necessary information
-            // for sending the packet to the server
-            try {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length,
-                        InetAddress.getByName(monitoringHostName),
-                        monitoringPort);
+    /**
+     * Sends the counts aggregated since the last flush, as lines of "host:port sender count" packed into as few
+     * datagrams as possible.
+     */
+    public void flush() {
+        if (pending.isEmpty()) return;
+
+        byte[] server = (localHostName + ":" + localHostPort + " ").getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream batch = new ByteArrayOutputStream(MAX_DATAGRAM_SIZE);
+
+        for (String sender : pending.keySet()) {
+            // remove is atomic, messages counted after it start a new entry for the next flush
+            Long count = pending.remove(sender);
+            if (count == null) continue;
+
+            byte[] line = (sender + " " + count).getBytes(StandardCharsets.UTF_8);
+            int lineSize = server.length + line.length;
+            if (batch.size() > 0 && batch.size() + 1 + lineSize > MAX_DATAGRAM_SIZE) {
+                send(batch.toByteArray(), batch.size());
+                batch.reset();
+            }
+
+            if (batch.size() > 0) batch.write('\n');
+            batch.write(server, 0, server.length);
+            batch.write(line, 0, line.length);
+        }
+
+        if (batch.size() > 0) send(batch.toByteArray(), batch.size());
+    }
 
-                socket.send(packet);
+    public synchronized void shutdown() {
+        MonitoringFlushThread thread = flushThread;
+        if (thread == null) return;
+
+        // from now on messages are sent directly, the counts merged so far go out with the final flush
+        flushThread = null;
+        thread.shutdown();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
 
-            } catch (UnknownHostException e) {
-                System.out.println("Monitoring server address could not be found.");
-            } catch (IOException e) {
-                System.out.println("Error sending monitoring packet.");
+    private void send(byte[] buffer, int length) {
+        // create the datagram packet with all the necessary information
+        // for sending the packet to the server
+        try {
+            InetSocketAddress address = monitoringAddress;
+            if (address == null || address.isUnresolved()) {
+                address = new InetSocketAddress(InetAddress.getByName(monitoringHostName), monitoringPort);
+                monitoringAddress = address;
             }
+
+            socket.send(new DatagramPacket(buffer, length, address));
+
+        } catch (UnknownHostException e) {
+            System.out.println("Monitoring server address could not be found.");
+        } catch (IOException e) {
+            System.out.println("Error sending monitoring packet.");
         }
     }
 }
@@ -0,0 +1,116 @@
+package dslab.transfer;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Selector thread that drives the {@link DMTPChannelSession}s of all connections assigned to it.
+ */
+public class NioEventLoop extends Thread {
+
+    private final Selector selector;
+    private final AtomicBoolean stopFlag;
+
+    // channels are handed over by the acceptor thread and registered from within the loop,
+    // because registering from another thread would block while the selector is selecting
+    private final ConcurrentLinkedQueue<SocketChannel> pendingChannels;
+
+    public NioEventLoop(String name) throws IOException {
+        super(name);
+
+        this.selector = Selector.open();
+        this.stopFlag = new AtomicBoolean(false);
+        this.pendingChannels = new ConcurrentLinkedQueue<>();
+    }
+
+    public void register(SocketChannel channel) {
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!stopFlag.get()) {
+                selector.select();
+
+                registerPendingChannels();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    DMTPChannelSession session = (DMTPChannelSession) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) session.onReadable();
+                        if (key.isValid() && key.isWritable()) session.onWritable();
+                    } catch (IOException e) {
+                        // connection reset by peer or similar, nothing left to do for this session
+                        session.close();
+                    }
+                }
+            }
+
+        } catch (ClosedSelectorException e) {
+            // this exception will occur when closing the selector because of server shutdown
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void registerPendingChannels() {
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+
+                DMTPChannelSession session = new DMTPChannelSession(channel, key);
+                key.attach(session);
+                session.start();
+            } catch (IOException e) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    // Ignored because we cannot handle it
+                }
+            }
+        }
+    }
+
+    // sessions are only touched by the loop thread, so the cleanup happens here and not in shutdown()
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() != null) ((DMTPChannelSession) key.attachment()).close();
+            }
+            selector.close();
+        } catch (ClosedSelectorException | IOException e) {
+            // already closed
+        }
+
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignored because we cannot handle it
+            }
+        }
+    }
+
+    public void shutdown() {
+        stopFlag.set(true);
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,94 @@
+package dslab.transfer;
+
+import at.ac.tuwien.dsg.orvell.Shell;
+import dslab.util.Config;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking alternative to {@link ListenerThread}. Instead of a thread per connection, accepted channels are
+ * distributed round-robin over a small number of {@link NioEventLoop}s, which multiplex all DMTP sessions.
+ */
+public class NioListenerThread extends Thread {
+
+    private final Config config;
+    private final Shell shell;
+    private final AtomicBoolean stopFlag;
+    private final int threads;
+
+    private ServerSocketChannel serverChannel;
+    private NioEventLoop[] eventLoops;
+
+    public NioListenerThread(Config config, Shell shell) {
+        this.config = config;
+        this.shell = shell;
+        this.stopFlag = new AtomicBoolean(false);
+
+        this.threads = config.containsKey("nio.threads") ? config.getInt("nio.threads") : Runtime.getRuntime().availableProcessors();
+        if (threads < 1) throw new IllegalArgumentException("nio.threads has to be at least 1, was " + threads);
+    }
+
+    @Override
+    public void run() {
+        int port = config.getInt("tcp.port");
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            this.serverChannel = serverChannel;
+            serverChannel.bind(new InetSocketAddress(port));
+
+            eventLoops = new NioEventLoop[threads];
+            for (int i = 0; i < threads; i++) {
+                eventLoops[i] = new NioEventLoop("dmtp-event-loop-" + i);
+                eventLoops[i].start();
+            }
+
+            int next = 0;
+
+            // the acceptor stays blocking, only the sessions themselves are multiplexed
+            while (!stopFlag.get()) {
+                try {
+                    SocketChannel channel = serverChannel.accept();
+
+                    eventLoops[next].register(channel);
+                    next = (next + 1) % eventLoops.length;
+
+                } catch (ClosedChannelException e) {
+                    // this exception will occur when closing the channel because of server shutdown
+
+                } catch (IOException e) {
+                    shell.out().println("I/O error: " + e);
+                }
+            }
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void shutdown() {
+        shell.out().println("Stopping all event loops!");
+
+        stopFlag.set(true);
+
+        if (serverChannel != null && serverChannel.isOpen()) {
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                shell.out().println("Error while closing server channel: " + e.getMessage());
+            }
+        }
+
+        if (eventLoops != null) {
+            for (NioEventLoop eventLoop : eventLoops) {
+                eventLoop.shutdown();
+            }
+        }
+
+        shell.out().println("All event loops stopped!");
+    }
+}
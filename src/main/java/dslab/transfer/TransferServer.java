@@ -5,12 +5,14 @@ import at.ac.tuwien.dsg.orvell.StopShellException;
 import at.ac.tuwien.dsg.orvell.annotation.Command;
 import dslab.ComponentFactory;
 import dslab.dns.DNSSingleton;
+import dslab.protocol.dmtp.DMTPConnectionPool;
 import dslab.util.Config;
 
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Map;
 
 // why extend Runnable here? ITransferServer already extends Runnable
 public class TransferServer implements ITransferServer, Runnable {
@@ -19,6 +21,7 @@ public class TransferServer implements ITransferServer, Runnable {
     private final Shell shell;
 
     private ListenerThread listenerThread;
+    private NioListenerThread nioListenerThread;
 
 
     /**
@@ -46,6 +49,27 @@ public class TransferServer implements ITransferServer, Runnable {
                 config.getInt("registry.port"),
                 config.getString("root_id")
         );
+        DNSSingleton.getInstance().setupCache(
+                config.containsKey("dns.cache.size") ? config.getInt("dns.cache.size") : 1024,
+                config.containsKey("dns.cache.ttl") ? config.getInt("dns.cache.ttl") : 60000,
+                config.containsKey("dns.cache.negative.ttl") ? config.getInt("dns.cache.negative.ttl") : 5000
+        );
+        DNSSingleton.getInstance().setRecursive(
+                config.containsKey("dns.recursive") && Boolean.parseBoolean(config.getString("dns.recursive"))
+        );
+
+        // init forwarding pool with the configured executor.mode
+        BackgroundTasksSingleton.getInstance().setup(config);
+
+        // deliveries to unreachable mailbox servers are retried with the configured delays
+        DeliveryRetryScheduler.getInstance().setup(config);
+
+        // init pool of outgoing DMTP connections to mailbox servers
+        DMTPConnectionPool.getInstance().setup(
+                config.containsKey("dmtp.pool.max.per.host") ? config.getInt("dmtp.pool.max.per.host") : 4,
+                config.containsKey("dmtp.pool.idle.timeout") ? config.getInt("dmtp.pool.idle.timeout") : 30000,
+                config.containsKey("dmtp.pipelining") && Boolean.parseBoolean(config.getString("dmtp.pipelining"))
+        );
 
         // init Monitoring
         String localHost = "";
@@ -58,25 +82,75 @@ public class TransferServer implements ITransferServer, Runnable {
                 config.getString("monitoring.host"),
                 config.getInt("monitoring.port"),
                 localHost,
-                config.getInt("tcp.port")
+                config.getInt("tcp.port"),
+                config.containsKey("monitoring.batch.interval") ? config.getInt("monitoring.batch.interval") : 0
         );
 
-        listenerThread = new ListenerThread(config, shell);
-        listenerThread.start();
+        // "nio" multiplexes all DMTP sessions on a few selector threads, default is one thread per connection
+        if (config.containsKey("listener.mode") && config.getString("listener.mode").equals("nio")) {
+            nioListenerThread = new NioListenerThread(config, shell);
+            nioListenerThread.start();
+        } else {
+            listenerThread = new ListenerThread(config, shell);
+            listenerThread.start();
+        }
 
         shell.run();
 
         System.out.println("Bye!");
     }
 
+    @Command
+    public void dns() {
+        DNSSingleton dns = DNSSingleton.getInstance();
+        shell.out().println("cached " + dns.getCacheSize() + " hits " + dns.getCacheHits() + " misses " + dns.getCacheMisses());
+    }
+
+    @Command
+    public void forwarding() {
+        ForwardingLimiter limiter = BackgroundTasksSingleton.getInstance().getLimiter();
+        shell.out().println("queued " + limiter.getDepth() + "/" + limiter.getCapacity()
+                + " accepted " + limiter.getAccepted() + " delayed " + limiter.getDelayed()
+                + " rejected " + limiter.getRejected() + " waited " + limiter.getWaitMillis() + " ms"
+                + " max wait " + limiter.getMaxWaitMillis() + " ms");
+
+        ForwardingLimiter bounces = BackgroundTasksSingleton.getInstance().getBounceLimiter();
+        shell.out().println("bounces queued " + bounces.getDepth() + "/" + bounces.getCapacity()
+                + " dropped " + bounces.getRejected());
+    }
+
+    @Command
+    public void retries() {
+        DeliveryRetryScheduler retries = DeliveryRetryScheduler.getInstance();
+        for (Map.Entry<String, Integer> domain : retries.getPending().entrySet()) {
+            shell.out().println(domain.getKey() + " " + domain.getValue() + " pending");
+        }
+        shell.out().println("retried " + retries.getRetried() + " delivered " + retries.getDelivered()
+                + " expired " + retries.getExpired());
+
+        ForwardingLimiter backlog = retries.getBacklog();
+        shell.out().println("backlog " + backlog.getDepth() + "/" + backlog.getCapacity()
+                + " bounced when full " + backlog.getRejected());
+    }
+
     @Override
     @Command
     public void shutdown() {
-        listenerThread.shutdown();
+        if (listenerThread != null) listenerThread.shutdown();
+        if (nioListenerThread != null) nioListenerThread.shutdown();
+
+        // stop retrying failed deliveries
+        DeliveryRetryScheduler.getInstance().shutdown();
 
         // shutdown background tasks thread pool
         BackgroundTasksSingleton.getInstance().shutdown();
 
+        // close idle connections to mailbox servers
+        DMTPConnectionPool.getInstance().shutdown();
+
+        // send the monitoring counts that were not sent yet
+        MonitoringSingleton.getInstance().shutdown();
+
         System.out.println("Transfer Server Shutdown");
 
         throw new StopShellException();
@@ -0,0 +1,88 @@
+package dslab.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the thread pools of the servers according to the {@code executor.mode} property of a component config.
+ * <ul>
+ *     <li>{@code platform} (default): a cached pool for connections, a fixed pool for background tasks</li>
+ *     <li>{@code bounded}: {@code executor.threads} platform threads per pool, connections beyond that are rejected</li>
+ *     <li>{@code virtual}: a new virtual thread per task, requires a Java 21 runtime</li>
+ * </ul>
+ */
+public final class ExecutorFactory {
+
+    private ExecutorFactory() {
+        // util class
+    }
+
+    /**
+     * Creates the executor that runs one task per accepted connection. In bounded mode, submitting a connection while
+     * all threads are busy throws a {@link java.util.concurrent.RejectedExecutionException}.
+     *
+     * @param config the component config
+     * @return a new ExecutorService instance
+     */
+    public static ExecutorService newConnectionExecutor(Config config) {
+        switch (getMode(config)) {
+            case "virtual":
+                ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+                return virtual != null ? virtual : Executors.newCachedThreadPool();
+            case "bounded":
+                // a session holds its thread until the client disconnects, so a connection that has to wait for a
+                // thread would get no greeting for an unknown time; it is rejected instead and the listener closes it
+                int threads = getThreads(config);
+                return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>(),
+                        new ThreadPoolExecutor.AbortPolicy());
+            default:
+                return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Creates the executor for background tasks, such as forwarding messages.
+     *
+     * @param config         the component config
+     * @param defaultThreads the number of threads used in platform mode
+     * @return a new ExecutorService instance
+     */
+    public static ExecutorService newBackgroundExecutor(Config config, int defaultThreads) {
+        switch (getMode(config)) {
+            case "virtual":
+                ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+                return virtual != null ? virtual : Executors.newFixedThreadPool(defaultThreads);
+            case "bounded":
+                return Executors.newFixedThreadPool(getThreads(config));
+            default:
+                return Executors.newFixedThreadPool(defaultThreads);
+        }
+    }
+
+    private static String getMode(Config config) {
+        String mode = config.containsKey("executor.mode") ? config.getString("executor.mode") : "platform";
+        if (!mode.equals("platform") && !mode.equals("bounded") && !mode.equals("virtual"))
+            throw new IllegalArgumentException("Unknown executor.mode " + mode + ", expected platform, bounded or virtual");
+        return mode;
+    }
+
+    private static int getThreads(Config config) {
+        return config.containsKey("executor.threads") ? config.getInt("executor.threads") : Runtime.getRuntime().availableProcessors();
+    }
+
+    // the project targets Java 11 by default, so the virtual thread executor is looked up reflectively
+    // returns null if the runtime does not support virtual threads
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual threads are not supported by this runtime, falling back to platform threads!");
+            return null;
+        }
+    }
+}
@@ -6,19 +6,54 @@ import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
+import java.util.List;
 import java.util.Objects;
 
+/**
+ * Calculates and verifies the HMAC of messages with the shared secret in keys/hmac.key.
+ * The secret is read once and only read again after the key file changed, each thread keeps its own initialized Mac.
+ */
 public class MessageHasher {
 
+  private static final long DEFAULT_RELOAD_CHECK_MILLIS = 1000;
+
+  private final File keyFile;
+  // how often the modification time of the key file is checked at most
+  private final long reloadCheckMillis;
+
+  private volatile LoadedKey loadedKey;
+
+  private final ThreadLocal<Hashing> hashing = new ThreadLocal<>();
+
+  public MessageHasher() {
+    this(new File("keys/hmac.key"), DEFAULT_RELOAD_CHECK_MILLIS);
+  }
+
+  MessageHasher(File keyFile, long reloadCheckMillis) {
+    this.keyFile = keyFile;
+    this.reloadCheckMillis = reloadCheckMillis;
+  }
+
   public byte[] calculateHash(Message message) {
     SecretKeySpec key = loadSharedSecret();
-    Mac mac = createMac(key);
-    byte[] bytes = prepareInput(message);
 
-    return calculateHash(mac, bytes);
+    Hashing h = hashing.get();
+    if (h == null || h.key != key) {
+      h = new Hashing(key);
+      hashing.set(h);
+    }
+
+    prepareInput(h, message);
+    return h.mac.doFinal();
   }
 
   public String encodeHash(byte[] hash) {
@@ -31,37 +66,94 @@ public class MessageHasher {
     return Objects.equals(encodedHash, message.getHash());
   }
 
-  private static byte[] calculateHash(Mac mac, byte[] bytes) {
-    mac.update(bytes);
-    return mac.doFinal();
+  // feeds the same bytes into the mac as String.join("\n", sender, recipients.toString(), subject, data).getBytes(),
+  // without building that string
+  private static void prepareInput(Hashing h, Message message) {
+    h.update(message.getSender());
+    h.update("\n[");
+    List<String> recipients = message.getRecipients();
+    for (int i = 0; i < recipients.size(); i++) {
+      if (i > 0) h.update(", ");
+      h.update(recipients.get(i));
+    }
+    h.update("]\n");
+    h.update(message.getSubject());
+    h.update("\n");
+    h.update(message.getData());
   }
 
-  private static byte[] prepareInput(Message message) {
-    String msg = String.join("\n", message.getSender(), message.getRecipients().toString(), message.getSubject(), message.getData()); //todo
-    byte[] bytes = msg.getBytes();
-    return bytes;
+  private SecretKeySpec loadSharedSecret() {
+    LoadedKey current = loadedKey;
+    long now = System.currentTimeMillis();
+    if (current != null && now - current.checkedAt < reloadCheckMillis) return current.key;
+
+    synchronized (this) {
+      current = loadedKey;
+      if (current != null && now - current.checkedAt < reloadCheckMillis) return current.key;
+
+      long lastModified = keyFile.lastModified();
+      if (current != null && current.lastModified == lastModified) {
+        loadedKey = new LoadedKey(current.key, lastModified, now);
+        return current.key;
+      }
+
+      SecretKeySpec key;
+      try {
+        key = Keys.readSecretKey(keyFile);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      loadedKey = new LoadedKey(key, lastModified, now);
+      return key;
+    }
   }
 
-  private static Mac createMac(SecretKeySpec key) {
-    Mac mac;
-    try {
-      mac = Mac.getInstance(key.getAlgorithm());
-      mac.init(key);
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException(e);
-    } catch (InvalidKeyException e) {
-      throw new RuntimeException(e);
+  private static class LoadedKey {
+    private final SecretKeySpec key;
+    private final long lastModified;
+    private final long checkedAt;
+
+    private LoadedKey(SecretKeySpec key, long lastModified, long checkedAt) {
+      this.key = key;
+      this.lastModified = lastModified;
+      this.checkedAt = checkedAt;
     }
-    return mac;
   }
 
-  private static SecretKeySpec loadSharedSecret() {
-    SecretKeySpec key;
-    try {
-      key = Keys.readSecretKey(new File("keys/hmac.key"));
-    } catch (IOException e) {
-      throw new RuntimeException(e);
+  // the mac of a thread and the buffer the fields of a message are encoded into
+  private static class Hashing {
+    private final SecretKeySpec key;
+    private final Mac mac;
+    private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+    private Hashing(SecretKeySpec key) {
+      this.key = key;
+      try {
+        mac = Mac.getInstance(key.getAlgorithm());
+        mac.init(key);
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      } catch (InvalidKeyException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    // encodes the text in chunks of the buffer size, like String.getBytes() with the default charset
+    private void update(String text) {
+      CharBuffer in = CharBuffer.wrap(String.valueOf(text));
+      encoder.reset();
+      while (encoder.encode(in, buffer, true) == CoderResult.OVERFLOW) drain();
+      while (encoder.flush(buffer) == CoderResult.OVERFLOW) drain();
+      drain();
+    }
+
+    private void drain() {
+      buffer.flip();
+      mac.update(buffer);
+      buffer.clear();
     }
-    return key;
   }
 }
@@ -0,0 +1,94 @@
+package dslab.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache with least-recently-used eviction and a time to live per entry. A cached null value is a negative
+ * entry, i.e. the key is known to not exist.
+ *
+ * @param <V> the type of the cached values
+ */
+public class ResolverCache<V> {
+
+    private final int maxSize;
+    private final LinkedHashMap<String, Entry<V>> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public ResolverCache(int maxSize) {
+        this.maxSize = maxSize;
+        // access order turns the map into an LRU list, the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ResolverCache.Entry<V>> eldest) {
+                return size() > ResolverCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached entry for the given key, or null if there is none or it is expired.
+     *
+     * @param key the key
+     * @return the entry, its value is null for negative entries
+     */
+    public synchronized Entry<V> get(String key) {
+        Entry<V> entry = entries.get(key);
+
+        if (entry != null && entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(key);
+            entry = null;
+        }
+
+        if (entry == null) misses.increment();
+        else hits.increment();
+
+        return entry;
+    }
+
+    public synchronized void put(String key, V value, long ttlMillis) {
+        if (ttlMillis <= 0) return;
+        entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttlMillis));
+    }
+
+    public synchronized void remove(String key) {
+        entries.remove(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        public boolean isNegative() {
+            return value == null;
+        }
+    }
+}
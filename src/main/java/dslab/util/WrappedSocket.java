@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 
 public class WrappedSocket {
     Socket socket;
@@ -25,6 +26,32 @@ public class WrappedSocket {
         writer.println(text);
     }
 
+    /**
+     * Writes a line without flushing it, e.g. to send a batch of pipelined commands with a single {@link #flush()}.
+     *
+     * @param text the line to write
+     */
+    public void append(String text) {
+        writer.print(text);
+        writer.print(System.lineSeparator());
+    }
+
+    public void flush() {
+        writer.flush();
+    }
+
+    /**
+     * Writes a response line, but only flushes if no further input is buffered yet. This way the answers to
+     * pipelined commands are sent in one batch, while a client waiting for each response still gets it immediately.
+     *
+     * @param text the line to write
+     * @throws IOException if an I/O error occurs while checking for buffered input
+     */
+    public void writeBatched(String text) throws IOException {
+        append(text);
+        if (!reader.ready()) flush();
+    }
+
     public void close() {
         try {
             if (socket != null && !socket.isClosed()) {
@@ -39,6 +66,34 @@ public class WrappedSocket {
         return socket.isClosed();
     }
 
+    /**
+     * Probes an idle connection without blocking. The peer is not expected to send anything unsolicited, so both
+     * end of stream and pending data mean that the connection cannot be reused.
+     *
+     * @return true if the connection is still open and no unexpected data is pending
+     */
+    public boolean isAlive() {
+        if (socket.isClosed()) return false;
+
+        try {
+            if (reader.ready()) return false;
+
+            socket.setSoTimeout(1);
+            try {
+                // returns either end of stream or unexpected data
+                socket.getInputStream().read();
+                return false;
+            } catch (SocketTimeoutException e) {
+                // nothing to read within the timeout, the connection is idle but alive
+                return true;
+            } finally {
+                socket.setSoTimeout(0);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
     public int getPort() {
         return socket.getPort();
     }
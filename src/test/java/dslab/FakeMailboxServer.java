@@ -0,0 +1,147 @@
+package dslab;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dslab.entity.Domain;
+
+/**
+ * Minimal DMTP server on a free local port, every connection is served by its own thread. It accepts every message
+ * unless configured otherwise and records what it received.
+ */
+public class FakeMailboxServer implements Closeable {
+
+    private final ServerSocket serverSocket;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger messages = new AtomicInteger();
+    private final List<String> subjects = Collections.synchronizedList(new ArrayList<>());
+
+    // read all commands of a message before answering any of them, only works with a pipelining client
+    private volatile boolean answerAfterSend = false;
+    // recipients that are answered with an error, like the real server the message then has no recipients to send to
+    private volatile String unknownRecipient;
+    // number of recipients the server claims to be responsible for in its answer to "to"
+    private volatile int localRecipients = 1;
+    // close a connection without a word after this many messages, like an idle timeout of the server (0 = never)
+    private volatile int closeAfterMessages = 0;
+
+    public FakeMailboxServer() throws IOException {
+        serverSocket = new ServerSocket(0);
+
+        Thread acceptor = new Thread(this::accept, "fake-mailbox");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public Domain domain(String name) {
+        return new Domain(name, "127.0.0.1", serverSocket.getLocalPort());
+    }
+
+    public FakeMailboxServer answerAfterSend() {
+        this.answerAfterSend = true;
+        return this;
+    }
+
+    public FakeMailboxServer rejectRecipient(String recipient) {
+        this.unknownRecipient = recipient;
+        return this;
+    }
+
+    public FakeMailboxServer localRecipients(int count) {
+        this.localRecipients = count;
+        return this;
+    }
+
+    public FakeMailboxServer closeAfterMessages(int count) {
+        this.closeAfterMessages = count;
+        return this;
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    public int getMessages() {
+        return messages.get();
+    }
+
+    public List<String> getSubjects() {
+        return new ArrayList<>(subjects);
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+
+                Thread session = new Thread(() -> serve(socket));
+                session.setDaemon(true);
+                session.start();
+            } catch (IOException e) {
+                // closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(s.getInputStream()));
+            PrintWriter writer = new PrintWriter(s.getOutputStream(), true);
+            writer.println("ok DMTP");
+
+            List<String> responses = new ArrayList<>();
+            int sent = 0;
+            boolean rejected = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.equals("quit")) {
+                    writer.println("ok bye");
+                    return;
+                }
+
+                String response = respond(line);
+                if (line.equals("begin")) rejected = false;
+                if (line.startsWith("to ") && !response.startsWith("ok")) rejected = true;
+                if (line.equals("send") && rejected) response = "error no recipients";
+
+                // counted before the answer, so the client sees the count once its send is acknowledged
+                if (line.equals("send") && !rejected) messages.incrementAndGet();
+
+                responses.add(response);
+                if (!answerAfterSend || line.equals("send")) {
+                    for (String answer : responses) writer.println(answer);
+                    responses.clear();
+                }
+
+                if (line.equals("send") && closeAfterMessages > 0 && ++sent == closeAfterMessages) return;
+            }
+        } catch (IOException e) {
+            // client went away
+        }
+    }
+
+    private String respond(String line) {
+        if (line.startsWith("to ")) {
+            String recipient = unknownRecipient;
+            return recipient != null && line.contains(recipient) ? "error unknown recipient " + recipient : "ok " + localRecipients;
+        }
+        if (line.startsWith("subject ")) subjects.add(line.substring(8));
+        return "ok";
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
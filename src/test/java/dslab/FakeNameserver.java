@@ -0,0 +1,86 @@
+package dslab;
+
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dslab.nameserver.INameserverRemote;
+
+/**
+ * Root nameserver that resolves whole domains from a fixed table, bound in its own RMI registry. Domains can be marked
+ * as broken, resolving them fails like an unreachable nameserver.
+ */
+public class FakeNameserver implements INameserverRemote, AutoCloseable {
+
+    public static final String ROOT_ID = "fake-root-nameserver";
+
+    private final Registry registry;
+    private final int registryPort;
+
+    private final Map<String, String> addresses = new ConcurrentHashMap<>();
+    private final Set<String> broken = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger resolveCalls = new AtomicInteger();
+
+    public FakeNameserver(int registryPort) throws RemoteException {
+        this.registryPort = registryPort;
+        this.registry = LocateRegistry.createRegistry(registryPort);
+        registry.rebind(ROOT_ID, UnicastRemoteObject.exportObject(this, 0));
+    }
+
+    public int getRegistryPort() {
+        return registryPort;
+    }
+
+    public FakeNameserver register(String domain, String address) {
+        addresses.put(domain, address);
+        return this;
+    }
+
+    public FakeNameserver breakDomain(String domain) {
+        broken.add(domain);
+        return this;
+    }
+
+    public int getResolveCalls() {
+        return resolveCalls.get();
+    }
+
+    @Override
+    public String resolve(String domain) throws RemoteException {
+        resolveCalls.incrementAndGet();
+        if (broken.contains(domain)) throw new RemoteException("nameserver of " + domain + " not reachable");
+        return addresses.get(domain);
+    }
+
+    @Override
+    public void registerNameserver(String domain, INameserverRemote nameserver) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void registerMailboxServer(String domain, String address) {
+        addresses.put(domain, address);
+    }
+
+    @Override
+    public INameserverRemote getNameserver(String zone) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String lookup(String username) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws NoSuchObjectException {
+        UnicastRemoteObject.unexportObject(this, true);
+        UnicastRemoteObject.unexportObject(registry, true);
+    }
+}
@@ -0,0 +1,65 @@
+package dslab.encryption;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.TestBase;
+
+public class AESTest extends TestBase {
+
+    private AES client;
+    private AES server;
+
+    @Before
+    public void setUp() {
+        byte[] secret = new byte[32];
+        byte[] iv = new byte[16];
+        for (int i = 0; i < secret.length; i++) secret[i] = (byte) i;
+        for (int i = 0; i < iv.length; i++) iv[i] = (byte) (100 + i);
+
+        client = new AES(secret, iv, AESMode.CLIENT);
+        server = new AES(secret, iv, AESMode.SERVER);
+    }
+
+    @Test(timeout = 5000)
+    public void messagesInBothDirections_areDecryptedInOrder() {
+        for (int i = 0; i < 100; i++) {
+            String request = "show message" + i;
+            String response = "from arthur@earth.planet " + i;
+
+            err.checkThat(new String(server.decrypt(client.encrypt(request.getBytes()))), is(request));
+            err.checkThat(new String(client.decrypt(server.encrypt(response.getBytes()))), is(response));
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void sameMessageTwice_isEncryptedDifferently() {
+        // the key stream continues, it is not restarted for every message
+        byte[] first = client.encrypt("list".getBytes());
+        byte[] second = client.encrypt("list".getBytes());
+        err.checkThat(Arrays.equals(first, second), is(false));
+
+        // the two directions use different key streams
+        byte[] fromServer = server.encrypt("list".getBytes());
+        err.checkThat(fromServer, not(is(first)));
+    }
+
+    @Test(timeout = 5000)
+    public void encryptIntoBuffer_matchesEncryptOfArray() {
+        byte[] buffer = new byte[64];
+        byte[] line = "subject hello".getBytes();
+        System.arraycopy(line, 0, buffer, 10, line.length);
+
+        int length = client.encrypt(buffer, 10, line.length, buffer, 10);
+        err.checkThat(length, is(line.length));
+
+        byte[] decrypted = new byte[line.length];
+        server.decrypt(buffer, 10, line.length, decrypted, 0);
+        err.checkThat(new String(decrypted), is("subject hello"));
+    }
+}
@@ -0,0 +1,73 @@
+package dslab.encryption;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the RSA part of the DMAP handshake (the client encrypts the challenge with the public key of the server,
+ * the server decrypts it with its private key), once with a cold {@link RSAKeyCache} for every handshake and once
+ * with the cached keys and ciphers.
+ * <p>
+ * Run it from the project root, so the key files are found:
+ * <pre>java -cp ... dslab.encryption.RSAHandshakeBenchmark [componentId] [handshakes] [threads]</pre>
+ */
+public class RSAHandshakeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String componentId = args.length > 0 ? args[0] : "mailbox-earth-planet";
+        int handshakes = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+        // RSA prints every decryption, keep the output readable
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // warm up the JIT for both variants
+            run(executor, componentId, handshakes / 4, threads, true);
+            run(executor, componentId, handshakes / 4, threads, false);
+
+            long cold = run(executor, componentId, handshakes, threads, true);
+            long cached = run(executor, componentId, handshakes, threads, false);
+
+            out.printf("%d handshakes with %d threads%n", handshakes, threads);
+            out.printf("cold key cache:   %6d ms, %8.1f us/handshake%n", cold / 1_000_000, cold / 1000.0 / handshakes);
+            out.printf("cached keys:      %6d ms, %8.1f us/handshake%n", cached / 1_000_000, cached / 1000.0 / handshakes);
+        } finally {
+            executor.shutdownNow();
+            System.setOut(out);
+        }
+    }
+
+    private static long run(ExecutorService executor, String componentId, int handshakes, int threads, boolean cold) throws Exception {
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for (int t = 0; t < threads; t++) {
+            int count = handshakes / threads + (t < handshakes % threads ? 1 : 0);
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < count; i++) {
+                    if (cold) RSAKeyCache.getInstance().clear();
+                    handshake(componentId);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) future.get();
+
+        return System.nanoTime() - start;
+    }
+
+    private static void handshake(String componentId) {
+        ClientChallenge challenge = new ClientChallenge();
+
+        byte[] encrypted = new RSA(componentId, RSAMode.CLIENT_ENCRYPT_PUBLIC_KEY).encrypt(challenge.getChallengeStringAsBase64().getBytes());
+        new RSA(componentId, RSAMode.SERVER_DECRYPT_PRIVATE_KEY).decrypt(encrypted);
+    }
+}
@@ -1,6 +1,13 @@
 package dslab.mailbox;
 
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -13,6 +20,7 @@ import dslab.Constants;
 import dslab.JunitSocketClient;
 import dslab.Sockets;
 import dslab.TestBase;
+import dslab.entity.Message;
 import dslab.util.Config;
 
 public class MailboxServerProtocolTest extends TestBase {
@@ -92,6 +100,37 @@ public class MailboxServerProtocolTest extends TestBase {
         }
     }
 
+    @Test(timeout = 15000)
+    public void listDmapMessages_largerThanOnePage_listsEveryMessageOnce() throws Exception {
+        // the storage is shared by the tests of this process, count what is there already
+        int before = MessageStorageSingleton.getInstance().listMessages("arthur").size();
+        for (int i = 0; i < 600; i++) {
+            MessageStorageSingleton.getInstance().storeMessage("arthur", new Message(null,
+                    new ArrayList<>(Arrays.asList("arthur@earth.planet")), "trillian@earth.planet", "page" + i, "data", null));
+        }
+
+        try (JunitSocketClient client = new JunitSocketClient(dmapServerPort, err)) {
+            client.verify("ok DMAP");
+            client.sendAndVerify("login arthur 23456", "ok");
+
+            client.send("list");
+            Set<String> ids = new HashSet<>();
+            String line;
+            while (!(line = client.read()).equals("ok")) ids.add(line.split(" ")[0]);
+            err.checkThat(ids.size(), is(before + 600));
+
+            // a window that crosses page boundaries
+            client.send("list " + (before + 250) + " 300");
+            List<String> window = new ArrayList<>();
+            while (!(line = client.read()).equals("ok")) window.add(line);
+            err.checkThat(window.size(), is(300));
+            err.checkThat(window.get(0), containsString("trillian@earth.planet page250"));
+            err.checkThat(window.get(299), containsString("trillian@earth.planet page549"));
+
+            client.sendAndVerify("quit", "ok bye");
+        }
+    }
+
     @Test(timeout = 15000)
     public void dmtpMessage_withUnknownRecipient_returnsError() throws Exception {
 
@@ -0,0 +1,243 @@
+package dslab.mailbox;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.TestBase;
+import dslab.entity.Message;
+
+public class MappedMessageStoreTest extends TestBase {
+
+    private Path directory;
+    private MappedMessageStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("mapped-store");
+        // small segments and index, so the tests cross segment boundaries and grow the index
+        store = new MappedMessageStore(directory, 4096, 16);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test(timeout = 15000)
+    public void putGetAndList_returnStoredMessagesInOrder() throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            String id = id(i);
+            ids.add(id);
+            put("trillian", id, "subject" + i);
+        }
+        put("zaphod", id(0), "other");
+
+        // a taken id is skipped and the next candidate is used
+        Iterator<String> candidates = Arrays.asList(id(0), id(1000)).iterator();
+        err.checkThat(store.add(list("zaphod"), message("duplicate"), candidates::next), is(list(id(1000))));
+        store.remove("zaphod", id(1000));
+        err.checkThat(store.get("trillian", id(42)).getSubject(), is("subject42"));
+        err.checkThat(store.get("zaphod", id(0)).getSubject(), is("other"));
+        err.checkThat(store.get("zaphod", id(1)), is(nullValue()));
+        // no user logged in
+        err.checkThat(store.get(null, id(0)), is(nullValue()));
+        err.checkThat(store.remove(null, id(0)), is(false));
+
+        List<String> listed = store.list("trillian").stream().map(Message::getId).collect(Collectors.toList());
+        err.checkThat(listed, is(ids));
+
+        List<String> window = store.list("trillian", 100, 50).stream().map(Message::getId).collect(Collectors.toList());
+        err.checkThat(window, is(ids.subList(100, 150)));
+        err.checkThat(store.list("trillian", 490, 50).size(), is(10));
+    }
+
+    @Test(timeout = 15000)
+    public void removeAndPut_hideDeletedAndReplacedRecords() throws Exception {
+        for (int i = 0; i < 100; i++) put("trillian", id(i), "subject" + i);
+
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            if (i % 3 == 0) err.checkThat(store.remove("trillian", id(i)), is(true));
+            else expected.add(id(i));
+        }
+        err.checkThat(store.remove("trillian", id(0)), is(false));
+
+        // replacing keeps a single entry with the new content
+        put("trillian", id(1), "replaced");
+        // the slots of deleted messages can be taken again
+        for (int i = 100; i < 300; i++) {
+            put("trillian", id(i), "subject" + i);
+            expected.add(id(i));
+        }
+
+        List<Message> listed = store.list("trillian");
+        err.checkThat(listed.size(), is(expected.size()));
+        err.checkThat(listed.stream().map(Message::getId).collect(Collectors.toSet()), is(expected));
+        err.checkThat(store.get("trillian", id(1)).getSubject(), is("replaced"));
+        err.checkThat(store.get("trillian", id(3)), is(nullValue()));
+        err.checkThat(store.snapshot().get("trillian").size(), is(expected.size()));
+    }
+
+    @Test(timeout = 15000)
+    public void largeMessage_getsSegmentOfItsOwn() throws Exception {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 10000; i++) data.append('x');
+
+        Message message = message("large");
+        message.setData(data.toString());
+        store.put(list("trillian"), list(id(0)), message);
+        put("trillian", id(1), "small");
+
+        err.checkThat(store.get("trillian", id(0)).getData().length(), is(10000));
+        err.checkThat(store.list("trillian").size(), is(2));
+    }
+
+    @Test(timeout = 15000)
+    public void sharedMessage_isStoredOnceAndReclaimedAfterLastDelete() throws Exception {
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < 4000; i++) data.append('x');
+        Message message = message("shared");
+        message.setData(data.toString());
+
+        // each body fills a segment of its own
+        List<String> users = Arrays.asList("trillian", "zaphod", "arthur");
+        List<String> ids = store.add(users, message, new Iterator<String>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public String next() {
+                return id(next++);
+            }
+        }::next);
+        put("trillian", id(100), "other");
+
+        err.checkThat(bodySegments(), is(2L));
+        for (int i = 0; i < users.size(); i++) {
+            err.checkThat(store.get(users.get(i), ids.get(i)).getSubject(), is("shared"));
+        }
+
+        store.remove("trillian", ids.get(0));
+        store.remove("zaphod", ids.get(1));
+        err.checkThat(bodySegments(), is(2L));
+
+        // the last recipient deleted the message, its segment is released
+        store.remove("arthur", ids.get(2));
+        err.checkThat(bodySegments(), is(1L));
+        err.checkThat(store.get("trillian", id(100)).getSubject(), is("other"));
+    }
+
+    @Test(timeout = 15000)
+    public void deletedReferences_areUnlinkedAndTheirSegmentsReleased() throws Exception {
+        for (int i = 0; i < 1000; i++) put("trillian", id(i), "subject" + i);
+        long before = segments("refs");
+        err.checkThat(before > 5, is(true));
+
+        // deleting the oldest messages kills whole reference segments
+        for (int i = 0; i < 900; i++) store.remove("trillian", id(i));
+        // and so does replacing
+        for (int i = 900; i < 950; i++) put("trillian", id(i), "replaced" + i);
+
+        err.checkThat(segments("refs") < before, is(true));
+
+        List<Message> listed = store.list("trillian");
+        err.checkThat(listed.size(), is(100));
+        err.checkThat(listed.get(0).getId(), is(id(950)));
+        err.checkThat(listed.get(50).getSubject(), is("replaced900"));
+        err.checkThat(store.list("trillian", 40, 20).get(0).getId(), is(id(990)));
+        err.checkThat(store.get("trillian", id(10)), is(nullValue()));
+
+        // an emptied chain takes new messages again
+        for (int i = 950; i < 1000; i++) store.remove("trillian", id(i));
+        for (int i = 900; i < 950; i++) store.remove("trillian", id(i));
+        err.checkThat(store.list("trillian").size(), is(0));
+        put("trillian", id(2000), "again");
+        err.checkThat(store.list("trillian").get(0).getSubject(), is("again"));
+    }
+
+    @Test(timeout = 15000)
+    public void iterator_continuesAfterChangesBetweenPages() throws Exception {
+        for (int i = 0; i < 300; i++) put("trillian", id(i), "subject" + i);
+
+        Iterator<Message> messages = store.iterator("trillian", 10);
+        List<String> seen = new ArrayList<>();
+        while (messages.hasNext()) {
+            Message message = messages.next();
+            seen.add(message.getId());
+
+            if (seen.size() == 64) {
+                // the last message of the first page and some ahead of the cursor are deleted, a new one arrives
+                store.remove("trillian", message.getId());
+                for (int i = 80; i < 90; i++) store.remove("trillian", id(i));
+                put("trillian", id(1000), "new");
+            }
+        }
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 10; i < 300; i++) if (i < 80 || i >= 90) expected.add(id(i));
+        expected.add(id(1000));
+        err.checkThat(seen, is(expected));
+
+        err.checkThat(store.iterator("trillian", 1000).hasNext(), is(false));
+        err.checkThat(store.iterator("zaphod", 0).hasNext(), is(false));
+    }
+
+    private long bodySegments() throws Exception {
+        return segments("bodies");
+    }
+
+    private long segments(String prefix) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(prefix)).count();
+        }
+    }
+
+    private void put(String user, String id, String subject) {
+        store.put(list(user), list(id), message(subject));
+    }
+
+    private static List<String> list(String value) {
+        return Collections.singletonList(value);
+    }
+
+    // ids of the same shape as the ones of the storage, 8 lowercase letters
+    private static String id(int number) {
+        StringBuilder id = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            id.append((char) ('a' + number % 26));
+            number /= 26;
+        }
+        return id.toString();
+    }
+
+    private static Message message(String subject) {
+        ArrayList<String> recipients = new ArrayList<>();
+        recipients.add("trillian@earth.planet");
+        return new Message(null, recipients, "arthur@earth.planet", subject, "data", "hash");
+    }
+}
@@ -0,0 +1,215 @@
+package dslab.mailbox;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.TestBase;
+import dslab.entity.Message;
+
+public class MessageLogTest extends TestBase {
+
+    private Path directory;
+    // what the log restored, per user and id
+    private Map<String, Map<String, Message>> restored;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("message-log");
+        restored = new ConcurrentHashMap<>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test(timeout = 15000)
+    public void reopen_restoresStoredAndDropsDeletedMessages() throws Exception {
+        MessageLog log = open(MessageLog.Durability.FSYNC, 1024 * 1024);
+        log.awaitDurable(log.appendStore(list("trillian"), list("aaaaaaaa"), message(null, "first")));
+        log.awaitDurable(log.appendStore(list("trillian"), list("bbbbbbbb"), message(null, "second")));
+        log.awaitDurable(log.appendStore(list("zaphod"), list("cccccccc"), message(null, "third")));
+        log.awaitDurable(log.appendDelete("trillian", "aaaaaaaa"));
+        log.close();
+
+        open(MessageLog.Durability.FSYNC, 1024 * 1024).close();
+
+        err.checkThat(restored.get("trillian").size(), is(1));
+        err.checkThat(restored.get("trillian").get("bbbbbbbb").getSubject(), is("second"));
+        err.checkThat(restored.get("trillian").get("bbbbbbbb").getHash(), is(nullValue()));
+        err.checkThat(restored.get("zaphod").get("cccccccc").getRecipients().get(0), is("trillian@earth.planet"));
+    }
+
+    @Test(timeout = 15000)
+    public void sharedRecord_restoresMessageForEveryUser() throws Exception {
+        MessageLog log = open(MessageLog.Durability.FSYNC, 1024 * 1024);
+        log.awaitDurable(log.appendStore(Arrays.asList("trillian", "zaphod"), Arrays.asList("aaaaaaaa", "bbbbbbbb"), message(null, "shared")));
+        log.awaitDurable(log.appendDelete("trillian", "aaaaaaaa"));
+        log.close();
+
+        open(MessageLog.Durability.FSYNC, 1024 * 1024).close();
+
+        err.checkThat(restored.get("trillian").size(), is(0));
+        err.checkThat(restored.get("zaphod").get("bbbbbbbb").getSubject(), is("shared"));
+    }
+
+    @Test(timeout = 15000)
+    public void reopen_ignoresTornRecordAtEndOfSegment() throws Exception {
+        MessageLog log = open(MessageLog.Durability.WRITE, 1024 * 1024);
+        log.appendStore(list("trillian"), list("aaaaaaaa"), message(null, "first"));
+        log.close();
+
+        // simulate a crash in the middle of writing the next record
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(path -> path.toString().endsWith(".log")).sorted().findFirst().get();
+        }
+        Files.write(segment, new byte[]{0, 0, 1, 0, 1, 2, 3}, java.nio.file.StandardOpenOption.APPEND);
+
+        open(MessageLog.Durability.WRITE, 1024 * 1024).close();
+
+        err.checkThat(restored.get("trillian").size(), is(1));
+    }
+
+    @Test(timeout = 15000)
+    public void compaction_keepsOnlyLiveMessages() throws Exception {
+        Map<String, Map<String, Message>> live = new HashMap<>();
+        live.put("trillian", new HashMap<>());
+
+        // tiny segments, so every record starts a new segment and compaction kicks in after three of them
+        MessageLog log = new MessageLog(directory, MessageLog.Durability.WRITE, 1, 3, () -> snapshot(live));
+        log.open(handler(restored), 1000);
+
+        for (int i = 0; i < 20; i++) {
+            Message message = message("id" + i, "subject" + i);
+            live.get("trillian").put(message.getId(), message);
+            log.appendStore(list("trillian"), list(message.getId()), message);
+
+            if (i % 2 == 0) {
+                live.get("trillian").remove(message.getId());
+                log.appendDelete("trillian", message.getId());
+            }
+        }
+        log.close();
+
+        long segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = files.filter(path -> path.toString().endsWith(".log")).count();
+        }
+        err.checkThat(segments <= 4, is(true));
+
+        restored.clear();
+        open(MessageLog.Durability.WRITE, 1024 * 1024).close();
+
+        err.checkThat(restored.get("trillian").keySet(), is(live.get("trillian").keySet()));
+    }
+
+    @Test(timeout = 15000)
+    public void appendDuringCompaction_survivesReopen() throws Exception {
+        Map<String, Map<String, Message>> live = new ConcurrentHashMap<>();
+        live.put("trillian", new ConcurrentHashMap<>());
+        Thread[] appender = new Thread[1];
+        MessageLog[] logs = new MessageLog[1];
+
+        // like the storage, the message of a new user is stored before it is appended to the log; here that happens
+        // while compaction is reading the live messages
+        MessageLog log = new MessageLog(directory, MessageLog.Durability.WRITE, 1024 * 1024, 4, () -> {
+            Map<String, Collection<Message>> snapshot = snapshot(live);
+            if (appender[0] == null) {
+                appender[0] = new Thread(() -> {
+                    Message message = message("zzzzzzzz", "during compaction");
+                    live.computeIfAbsent("zaphod", user -> new ConcurrentHashMap<>()).put(message.getId(), message);
+                    try {
+                        logs[0].appendStore(list("zaphod"), list(message.getId()), message);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                appender[0].start();
+                try {
+                    // the append has to wait for the compaction
+                    appender[0].join(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return snapshot;
+        });
+        logs[0] = log;
+        log.open(handler(restored), 1000);
+
+        Message first = message("aaaaaaaa", "before compaction");
+        live.get("trillian").put(first.getId(), first);
+        log.appendStore(list("trillian"), list(first.getId()), first);
+
+        log.compact();
+        appender[0].join();
+        log.close();
+
+        restored.clear();
+        open(MessageLog.Durability.WRITE, 1024 * 1024).close();
+
+        err.checkThat(restored.get("trillian").get("aaaaaaaa").getSubject(), is("before compaction"));
+        err.checkThat(restored.get("zaphod").get("zzzzzzzz").getSubject(), is("during compaction"));
+    }
+
+    private MessageLog open(MessageLog.Durability durability, long segmentSize) throws IOException {
+        MessageLog log = new MessageLog(directory, durability, segmentSize, 4, null);
+        log.open(handler(restored), 1000);
+        return log;
+    }
+
+    private static MessageLog.Handler handler(Map<String, Map<String, Message>> target) {
+        return new MessageLog.Handler() {
+            @Override
+            public void onStore(List<String> users, List<String> ids, Message message) {
+                for (int i = 0; i < users.size(); i++) {
+                    Message copy = new Message(message).setId(ids.get(i));
+                    target.computeIfAbsent(users.get(i), u -> new ConcurrentHashMap<>()).put(copy.getId(), copy);
+                }
+            }
+
+            @Override
+            public void onDelete(String user, String id) {
+                Map<String, Message> inbox = target.get(user);
+                if (inbox != null) inbox.remove(id);
+            }
+        };
+    }
+
+    private static Map<String, Collection<Message>> snapshot(Map<String, Map<String, Message>> live) {
+        Map<String, Collection<Message>> snapshot = new HashMap<>();
+        live.forEach((user, inbox) -> snapshot.put(user, new ArrayList<>(inbox.values())));
+        return snapshot;
+    }
+
+    private static List<String> list(String value) {
+        return Collections.singletonList(value);
+    }
+
+    private static Message message(String id, String subject) {
+        ArrayList<String> recipients = new ArrayList<>();
+        recipients.add("trillian@earth.planet");
+        return new Message(id, recipients, "arthur@earth.planet", subject, "data", null);
+    }
+}
@@ -0,0 +1,207 @@
+package dslab.mailbox;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.TestBase;
+import dslab.entity.Message;
+
+public class MessageStorageSingletonTest extends TestBase {
+
+    private static final int THREADS = 16;
+    private static final int MESSAGES_PER_THREAD = 500;
+
+    private MessageStorageSingleton storage;
+    private ExecutorService executor;
+    private String user;
+
+    @Before
+    public void setUp() {
+        storage = MessageStorageSingleton.getInstance();
+        executor = Executors.newFixedThreadPool(THREADS);
+        // the storage is a singleton, every test uses its own user so tests do not see each other's messages
+        user = "stress" + System.nanoTime();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test(timeout = 20000)
+    public void concurrentStoreAndList_losesNoMessages() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                    storage.storeMessage(user, message("t" + thread + "m" + i));
+                    // listing while other threads store must neither fail nor block
+                    storage.listMessages(user);
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) future.get();
+
+        List<Message> messages = storage.listMessages(user);
+        err.checkThat(messages.size(), is(THREADS * MESSAGES_PER_THREAD));
+        err.checkThat(messages.stream().map(Message::getId).distinct().count(), is((long) THREADS * MESSAGES_PER_THREAD));
+    }
+
+    @Test(timeout = 20000)
+    public void concurrentDelete_deletesEveryMessageExactlyOnce() throws Exception {
+        for (int i = 0; i < THREADS * MESSAGES_PER_THREAD; i++) {
+            storage.storeMessage(user, message("m" + i));
+        }
+        List<String> ids = new ArrayList<>();
+        for (Message message : storage.listMessages(user)) ids.add(message.getId());
+
+        AtomicInteger deleted = new AtomicInteger();
+        AtomicInteger notFound = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // every thread tries to delete every message, in a different order
+        for (int t = 0; t < THREADS; t++) {
+            List<String> order = new ArrayList<>(ids);
+            Collections.shuffle(order);
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (String id : order) {
+                    try {
+                        storage.deleteMessage(user, id);
+                        deleted.incrementAndGet();
+                    } catch (MessageNotFoundException e) {
+                        notFound.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) future.get();
+
+        err.checkThat(deleted.get(), is(ids.size()));
+        err.checkThat(notFound.get(), is(ids.size() * (THREADS - 1)));
+        err.checkThat(storage.listMessages(user).size(), is(0));
+    }
+
+    @Test(timeout = 20000)
+    public void mixedWorkload_keepsStorageConsistent() throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger stored = new AtomicInteger();
+        AtomicInteger deleted = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            boolean writer = t % 2 == 0;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                    if (writer) {
+                        storage.storeMessage(user, message("m" + i));
+                        stored.incrementAndGet();
+                    } else {
+                        for (Message message : storage.listMessages(user)) {
+                            try {
+                                storage.getMessage(user, message.getId());
+                                storage.deleteMessage(user, message.getId());
+                                deleted.incrementAndGet();
+                            } catch (MessageNotFoundException e) {
+                                // deleted by another reader in the meantime
+                            }
+                        }
+                    }
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) future.get();
+
+        err.checkThat(storage.listMessages(user).size(), is(stored.get() - deleted.get()));
+    }
+
+    @Test(timeout = 20000)
+    public void listWindow_returnsMessagesInArrivalOrder() throws Exception {
+        for (int i = 0; i < 100; i++) storage.storeMessage(user, message("m" + i));
+        storage.deleteMessage(user, storage.listMessages(user, 10, 1).get(0).getId());
+
+        List<Message> all = storage.listMessages(user);
+        err.checkThat(all.size(), is(99));
+        for (int i = 0; i < 99; i++) {
+            err.checkThat(all.get(i).getSubject(), is("m" + (i < 10 ? i : i + 1)));
+        }
+
+        List<Message> window = storage.listMessages(user, 20, 5);
+        err.checkThat(window.size(), is(5));
+        err.checkThat(window.get(0).getSubject(), is("m21"));
+        err.checkThat(window.get(4).getSubject(), is("m25"));
+
+        err.checkThat(storage.listMessages(user, 95, 10).size(), is(4));
+        err.checkThat(storage.listMessages(user, 200, 10).size(), is(0));
+    }
+
+    @Test(timeout = 20000)
+    public void concurrentReplaceAndDelete_keepsIndexesInStep() throws Exception {
+        HeapMessageStore store = new HeapMessageStore();
+        List<String> users = Collections.singletonList(user);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        // every thread replaces and deletes the same few ids, as restoring a log and a DMAP delete might
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                    List<String> ids = Collections.singletonList("id" + (i % 4));
+                    if ((i + thread) % 5 == 0) store.remove(user, ids.get(0));
+                    else store.put(users, ids, message("t" + thread + "m" + i));
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) future.get();
+
+        // a message listed by arrival is found by id and no id is listed twice
+        List<Message> listed = store.list(user);
+        err.checkThat(listed.stream().map(Message::getId).distinct().count(), is((long) listed.size()));
+        for (Message message : listed) {
+            err.checkThat(store.get(user, message.getId()).getSubject(), is(message.getSubject()));
+        }
+        int present = 0;
+        for (int i = 0; i < 4; i++) if (store.get(user, "id" + i) != null) present++;
+        err.checkThat(listed.size(), is(present));
+    }
+
+    private Message message(String subject) {
+        ArrayList<String> recipients = new ArrayList<>();
+        recipients.add(user + "@earth.planet");
+        return new Message(null, recipients, "arthur@earth.planet", subject, "data", null);
+    }
+}
@@ -0,0 +1,73 @@
+package dslab.monitoring;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.TestBase;
+
+public class CounterStoreTest extends TestBase {
+
+    private static final int THREADS = 8;
+    private static final int INCREMENTS_PER_THREAD = 100000;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(THREADS + 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test(timeout = 20000)
+    public void concurrentIncrementAndSnapshot_countsEveryIncrement() throws Exception {
+        CounterStore store = new CounterStore();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < INCREMENTS_PER_THREAD; i++) store.increment("user" + (i % 10) + "@earth.planet");
+                return null;
+            }));
+        }
+
+        // taking snapshots while the counters are incremented must neither fail nor block the increments
+        Future<?> reader = executor.submit(() -> {
+            start.await();
+            while (!futures.stream().allMatch(Future::isDone)) {
+                for (long count : store.snapshot().values()) {
+                    if (count < 0 || count > (long) THREADS * INCREMENTS_PER_THREAD / 10) throw new AssertionError(count);
+                }
+            }
+            return null;
+        });
+
+        start.countDown();
+        for (Future<?> future : futures) future.get();
+        reader.get();
+
+        Map<String, Long> snapshot = store.snapshot();
+        err.checkThat(snapshot.size(), is(10));
+        for (long count : snapshot.values()) {
+            err.checkThat(count, is((long) THREADS * INCREMENTS_PER_THREAD / 10));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package dslab.monitoring;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import dslab.TestBase;
+
+public class HeavyHittersTest extends TestBase {
+
+    @Test(timeout = 10000)
+    public void manyLightSenders_heavySendersAreReportedWithinTheErrorBound() {
+        HeavyHitters heavyHitters = new HeavyHitters(0.001, 0.01, 50);
+
+        // three heavy senders hidden between 100000 senders of a single message each, every tenth message is spam
+        // and the spam is split 5:3:2 between the heavy senders
+        long[] heavy = {5000, 3000, 2000};
+        for (int i = 0; i < 100000; i++) {
+            count(heavyHitters, "user" + i + "@earth.planet");
+            if (i % 10 == 0) {
+                int round = (i / 10) % 10;
+                count(heavyHitters, "spam" + (round < 5 ? 0 : round < 8 ? 1 : 2) + "@earth.planet");
+            }
+        }
+
+        List<Map.Entry<String, Long>> top = heavyHitters.top(3);
+        err.checkThat(top.size(), is(3));
+        for (int h = 0; h < heavy.length; h++) {
+            long count = top.get(h).getValue();
+            err.checkThat(top.get(h).getKey(), is("spam" + h + "@earth.planet"));
+            err.checkThat("count " + count + " of spam" + h, count >= heavy[h] && count <= heavy[h] + heavyHitters.errorBound(), is(true));
+        }
+
+        // only the capacity is tracked, no matter how many senders there are
+        err.checkThat(heavyHitters.snapshot().size(), is(50));
+    }
+
+    @Test(timeout = 10000)
+    public void exactCounterStore_topIsSortedByCount() {
+        CounterStore store = new CounterStore();
+        for (int i = 0; i < 3; i++) store.increment("a@earth.planet");
+        for (int i = 0; i < 5; i++) store.increment("b@earth.planet");
+        store.increment("c@earth.planet");
+
+        List<Map.Entry<String, Long>> top = store.top(2);
+        err.checkThat(top.size(), is(2));
+        err.checkThat(top.get(0).getKey(), is("b@earth.planet"));
+        err.checkThat(top.get(1).getKey(), is("a@earth.planet"));
+        err.checkThat(store.errorBound(), is(0L));
+    }
+
+    private static void count(HeavyHitters heavyHitters, String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        heavyHitters.increment(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,63 @@
+package dslab.monitoring;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.TestBase;
+
+public class ListenerThreadTest extends TestBase {
+
+    private CounterStore users;
+    private CounterStore servers;
+    private ListenerThread listener;
+
+    @Before
+    public void setUp() {
+        users = new CounterStore();
+        servers = new CounterStore();
+        // count does not touch the channel
+        listener = new ListenerThread(null, users, servers);
+    }
+
+    @Test(timeout = 5000)
+    public void singleMessagePackets_areCountedOnce() {
+        count("127.0.0.1:42 foo@example.com");
+        count("127.0.0.1:42 foo@example.com\n");
+        count("127.0.0.1:43 bar@example.com");
+
+        err.checkThat(users.snapshot(), is(Map.of("foo@example.com", 2L, "bar@example.com", 1L)));
+        err.checkThat(servers.snapshot(), is(Map.of("127.0.0.1:42", 2L, "127.0.0.1:43", 1L)));
+    }
+
+    @Test(timeout = 5000)
+    public void batchPackets_countEveryLineWithItsCount() {
+        count("127.0.0.1:42 foo@example.com 5\n127.0.0.1:42 bar@example.com 2\n127.0.0.1:43 foo@example.com 1");
+
+        err.checkThat(users.snapshot(), is(Map.of("foo@example.com", 6L, "bar@example.com", 2L)));
+        err.checkThat(servers.snapshot(), is(Map.of("127.0.0.1:42", 7L, "127.0.0.1:43", 1L)));
+    }
+
+    @Test(timeout = 5000)
+    public void malformedLines_areIgnored() {
+        count("127.0.0.1:42\n127.0.0.1:42 foo@example.com x\n127.0.0.1:42 foo@example.com 1 2\n127.0.0.1:42  3\n"
+                + "127.0.0.1:42 bar@example.com 0\n127.0.0.1:42 ok@example.com 1");
+
+        err.checkThat(users.snapshot(), is(Map.of("ok@example.com", 1L)));
+        err.checkThat(servers.snapshot(), is(Map.of("127.0.0.1:42", 1L)));
+    }
+
+    private void count(String packet) {
+        // the packet is received into a larger buffer that still contains older data behind it
+        byte[] buffer = new byte[1024];
+        Arrays.fill(buffer, (byte) 'x');
+        byte[] bytes = packet.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+        listener.count(buffer, bytes.length);
+    }
+}
@@ -0,0 +1,84 @@
+package dslab.monitoring;
+
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Floods the monitoring listeners with packets and reports how many packets per second were counted and how many were
+ * dropped. The listeners and counters run in this process on an ephemeral port, so no monitoring server is needed.
+ * <p>
+ * <pre>java -cp ... dslab.monitoring.MonitoringLoadGenerator [packets] [senders] [listenerThreads] [receiveBuffer]</pre>
+ */
+public class MonitoringLoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        int packets = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int senders = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int listenerThreads = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        int receiveBuffer = args.length > 3 ? Integer.parseInt(args[3]) : 1024 * 1024;
+
+        CounterStore users = new CounterStore();
+        CounterStore servers = new CounterStore();
+
+        DatagramChannel channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBuffer);
+        channel.bind(new InetSocketAddress("127.0.0.1", 0));
+        InetSocketAddress target = (InetSocketAddress) channel.getLocalAddress();
+
+        List<ListenerThread> listeners = new ArrayList<>();
+        for (int i = 0; i < listenerThreads; i++) {
+            ListenerThread listener = new ListenerThread(channel, users, servers);
+            listener.start();
+            listeners.add(listener);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(senders);
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for (int s = 0; s < senders; s++) {
+            int count = packets / senders + (s < packets % senders ? 1 : 0);
+            String server = "127.0.0.1:" + (40000 + s);
+            futures.add(executor.submit(() -> {
+                try (DatagramChannel sender = DatagramChannel.open()) {
+                    // a few hundred distinct senders, like the users of a busy transfer server
+                    ByteBuffer[] payloads = new ByteBuffer[256];
+                    for (int i = 0; i < payloads.length; i++) {
+                        payloads[i] = ByteBuffer.wrap((server + " user" + i + "@earth.planet").getBytes(StandardCharsets.UTF_8));
+                    }
+                    for (int i = 0; i < count; i++) {
+                        ByteBuffer payload = payloads[i % payloads.length];
+                        payload.rewind();
+                        sender.send(payload, target);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) future.get();
+        long sent = System.nanoTime() - start;
+        executor.shutdown();
+
+        // wait until the listeners have drained the receive buffer
+        long counted = 0;
+        for (long previous = -1; counted != previous; Thread.sleep(200)) {
+            previous = counted;
+            counted = servers.snapshot().values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        for (ListenerThread listener : listeners) listener.shutdown();
+        channel.close();
+
+        System.out.printf("%d packets from %d senders to %d listener threads%n", packets, senders, listenerThreads);
+        System.out.printf("sent:    %10.0f packets/s%n", packets / (sent / 1e9));
+        System.out.printf("counted: %10d packets, %.2f %% dropped%n", counted, 100.0 * (packets - counted) / packets);
+    }
+}
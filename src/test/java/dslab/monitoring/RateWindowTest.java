@@ -0,0 +1,46 @@
+package dslab.monitoring;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import org.junit.Test;
+
+import dslab.TestBase;
+
+public class RateWindowTest extends TestBase {
+
+    // some time well after the epoch, at the start of a minute
+    private static final long START = 1_700_000_040_000L;
+
+    @Test(timeout = 5000)
+    public void events_areReportedPerSecondMinuteAndHour() {
+        RateWindow window = new RateWindow();
+
+        // 10 events per second for 90 seconds
+        for (int second = 0; second < 90; second++) {
+            for (int i = 0; i < 10; i++) window.add(1, START + second * 1000L + i * 50);
+        }
+
+        long now = START + 89_500;
+        err.checkThat(window.lastSecond(now), is(10L));
+        err.checkThat(window.lastMinute(now), is(600L));
+        err.checkThat(window.lastHour(now), is(900L));
+    }
+
+    @Test(timeout = 5000)
+    public void oldEvents_leaveTheWindows() {
+        RateWindow window = new RateWindow();
+        window.add(5, START);
+
+        err.checkThat(window.lastSecond(START + 1000), is(5L));
+        err.checkThat(window.lastSecond(START + 2000), is(0L));
+        err.checkThat(window.lastMinute(START + 59_000), is(5L));
+        err.checkThat(window.lastMinute(START + 60_000), is(0L));
+        err.checkThat(window.lastHour(START + 59 * 60_000), is(5L));
+        err.checkThat(window.lastHour(START + 60 * 60_000), is(0L));
+
+        // the bucket of the same second an hour later starts over instead of adding to the old count
+        window.add(1, START + 60 * 60_000);
+        err.checkThat(window.lastMinute(START + 60 * 60_000), is(1L));
+        err.checkThat(window.lastHour(START + 60 * 60_000), is(1L));
+    }
+}
@@ -206,4 +206,38 @@ public class NameserverTest {
             sendShutdown(nsRootIn);
         }
     }
+
+    @Test(timeout = 30000)
+    public void ns05_resolveAtRoot_resolvesWholeDomainRecursively() throws Exception {
+        Runnable nsRoot = ComponentFactory.createNameserver("ns-root", nsRootIn, nsRootOut);
+
+        LOG.info("Starting ns-root thread");
+        Thread nsRootThread = new Thread(nsRoot);
+        nsRootThread.start();
+        Thread.sleep(Constants.COMPONENT_STARTUP_WAIT);
+
+        LOG.info("Starting ns-planet thread");
+        Runnable nsPlanet = ComponentFactory.createNameserver("ns-planet", nsPlanetIn, nsPlanetOut);
+        Thread nsPlanetThread = new Thread(nsPlanet);
+        nsPlanetThread.start();
+        Thread.sleep(Constants.COMPONENT_STARTUP_WAIT);
+
+        try {
+            Registry registry = LocateRegistry.getRegistry(nsPlanetConfig.getString("registry.host"), nsPlanetConfig.getInt("registry.port"));
+            INameserverRemote root = (INameserverRemote) registry.lookup(nsPlanetConfig.getString("root_id"));
+
+            root.registerMailboxServer("mars.planet", "192.168.0.1:14242");
+
+            LOG.info("Resolving mars.planet at the root nameserver");
+            err.checkThat(root.resolve("mars.planet"), is("192.168.0.1:14242"));
+            // the second call is answered from the cache of the root nameserver
+            err.checkThat(root.resolve("mars.planet"), is("192.168.0.1:14242"));
+
+            err.checkThat("unknown mail domain in a known zone", root.resolve("venus.planet"), nullValue());
+            err.checkThat("unknown zone", root.resolve("vienna.earth"), nullValue());
+        } finally {
+            sendShutdown(nsPlanetIn);
+            sendShutdown(nsRootIn);
+        }
+    }
 }
@@ -0,0 +1,29 @@
+package dslab.protocol.dmap;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import org.junit.Test;
+
+import dslab.TestBase;
+import dslab.protocol.dmap.exception.DMAPErrorException;
+
+public class DMAPTest extends TestBase {
+
+    @Test(timeout = 5000)
+    public void showAndDeleteBeforeLogin_returnErrors() throws Exception {
+        DMAP dmap = new DMAP("mailbox-earth-planet");
+        err.checkThat(dmap.processInput(null, null), is("ok DMAP2.0"));
+
+        // no user is logged in yet, the storage is asked for a message of no user
+        err.checkThat(error(dmap, "show 1"), is("error unknown message id"));
+        err.checkThat(error(dmap, "delete 1"), is("error not logged in"));
+    }
+
+    private static String error(DMAP dmap, String input) {
+        try {
+            return "no error but " + dmap.processInput(input, null);
+        } catch (DMAPErrorException e) {
+            return e.getMessage();
+        }
+    }
+}
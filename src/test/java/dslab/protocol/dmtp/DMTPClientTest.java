@@ -0,0 +1,92 @@
+package dslab.protocol.dmtp;
+
+import static dslab.protocol.dmtp.DMTPConnectionPoolTest.message;
+import static org.hamcrest.CoreMatchers.is;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.FakeMailboxServer;
+import dslab.TestBase;
+import dslab.entity.Domain;
+import dslab.entity.Message;
+import dslab.protocol.dmtp.exception.DMTPClientException;
+
+public class DMTPClientTest extends TestBase {
+
+    private FakeMailboxServer server;
+    private DMTPConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeMailboxServer();
+        pool = DMTPConnectionPool.getInstance();
+        pool.setup(4, 30000, true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test(timeout = 10000)
+    public void pipelinedSend_writesAllCommandsBeforeReadingResponses() throws Exception {
+        // the server only answers once it received "send", a client waiting for each response would hang here
+        server.answerAfterSend();
+        Domain domain = server.domain("earth.planet");
+
+        new DMTPClient(message("pipelined"), domain, pool).setPipelined(true).sendMessage();
+
+        err.checkThat(server.getMessages(), is(1));
+        err.checkThat(server.getSubjects(), is(List.of("pipelined")));
+    }
+
+    @Test(timeout = 10000)
+    public void pipelinedSend_withRejectedRecipient_failsAndDropsTheSession() throws Exception {
+        server.answerAfterSend().rejectRecipient("trillian@earth.planet");
+        Domain domain = server.domain("earth.planet");
+
+        boolean failed = false;
+        try {
+            new DMTPClient(message("rejected"), domain, pool).setPipelined(true).sendMessage();
+        } catch (DMTPClientException e) {
+            failed = true;
+        }
+        err.checkThat(failed, is(true));
+
+        // the session is in an unknown state after the error, the next message needs a new connection
+        server.rejectRecipient(null);
+        new DMTPClient(message("accepted"), domain, pool).setPipelined(true).sendMessage();
+        err.checkThat(server.getConnections(), is(2));
+    }
+
+    @Test(timeout = 10000)
+    public void pipelinedSend_acceptedBySend_isNotReportedAsFailed() throws Exception {
+        // "to" reports no local recipients, but the pipelined send was already accepted
+        server.answerAfterSend().localRecipients(0);
+        Domain domain = server.domain("earth.planet");
+
+        List<Message> failed = new DMTPClient(List.of(message("accepted")), domain, pool).setPipelined(true).sendMessages();
+
+        err.checkThat(failed.isEmpty(), is(true));
+        err.checkThat(server.getMessages(), is(1));
+    }
+
+    @Test(timeout = 10000)
+    public void pipelinedBatch_reportsOnlyTheRejectedMessage() {
+        server.rejectRecipient("zaphod@univer.ze");
+        Domain domain = server.domain("earth.planet");
+
+        Message rejected = message("second");
+        rejected.getRecipients().set(0, "zaphod@univer.ze");
+        List<Message> messages = List.of(message("first"), rejected, message("third"));
+
+        List<Message> failed = new DMTPClient(messages, domain, pool).setPipelined(true).sendMessages();
+
+        err.checkThat(failed, is(List.of(rejected)));
+        err.checkThat(server.getSubjects(), is(List.of("first", "second", "third")));
+    }
+}
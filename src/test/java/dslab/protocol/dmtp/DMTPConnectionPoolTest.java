@@ -0,0 +1,77 @@
+package dslab.protocol.dmtp;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.FakeMailboxServer;
+import dslab.TestBase;
+import dslab.entity.Domain;
+import dslab.entity.Message;
+
+public class DMTPConnectionPoolTest extends TestBase {
+
+    private FakeMailboxServer server;
+    private DMTPConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeMailboxServer();
+        pool = DMTPConnectionPool.getInstance();
+        pool.setup(4, 30000, false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test(timeout = 10000)
+    public void consecutiveMessages_reuseOneConnection() throws Exception {
+        Domain domain = server.domain("earth.planet");
+
+        for (int i = 0; i < 3; i++) {
+            new DMTPClient(message("pooled " + i), domain, pool).sendMessage();
+        }
+
+        err.checkThat(server.getMessages(), is(3));
+        err.checkThat(server.getConnections(), is(1));
+    }
+
+    @Test(timeout = 10000)
+    public void pooledConnectionClosedByServer_isReplacedTransparently() throws Exception {
+        server.closeAfterMessages(1);
+        Domain domain = server.domain("earth.planet");
+
+        new DMTPClient(message("first"), domain, pool).sendMessage();
+        // give the server time to close the idle connection
+        Thread.sleep(100);
+        new DMTPClient(message("second"), domain, pool).sendMessage();
+
+        err.checkThat(server.getSubjects(), is(List.of("first", "second")));
+        err.checkThat(server.getConnections(), is(2));
+    }
+
+    @Test(timeout = 10000)
+    public void batch_isSentOverOneSession() {
+        Domain domain = server.domain("earth.planet");
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) messages.add(message("batch " + i));
+
+        List<Message> failed = new DMTPClient(messages, domain, pool).sendMessages();
+
+        err.checkThat(failed.isEmpty(), is(true));
+        err.checkThat(server.getMessages(), is(5));
+        err.checkThat(server.getConnections(), is(1));
+    }
+
+    static Message message(String subject) {
+        ArrayList<String> recipients = new ArrayList<>(List.of("trillian@earth.planet"));
+        return new Message(null, recipients, "arthur@earth.planet", subject, "data", "hash");
+    }
+}
@@ -0,0 +1,155 @@
+package dslab.transfer;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.TestBase;
+import dslab.entity.Domain;
+import dslab.entity.ErrorMessage;
+import dslab.entity.Message;
+
+public class DeliveryRetrySchedulerTest extends TestBase {
+
+    private DeliveryRetryScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new DeliveryRetryScheduler();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void backoff_doublesUpToMaximum() {
+        err.checkThat(DeliveryRetryScheduler.backoff(100, 1000, 0), is(100L));
+        err.checkThat(DeliveryRetryScheduler.backoff(100, 1000, 1), is(200L));
+        err.checkThat(DeliveryRetryScheduler.backoff(100, 1000, 3), is(800L));
+        err.checkThat(DeliveryRetryScheduler.backoff(100, 1000, 4), is(1000L));
+        err.checkThat(DeliveryRetryScheduler.backoff(100, 1000, 1000), is(1000L));
+    }
+
+    @Test(timeout = 15000)
+    public void unreachableServer_messagesAreDeliveredOnceItIsBack() throws Exception {
+        int port = freePort();
+        scheduler.configure(50, 200, 60000);
+
+        // error messages are never bounced, so nothing else gets forwarded if the test fails
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) messages.add(message("retry " + i));
+        scheduler.schedule(new Domain("retry.test", "127.0.0.1", port), messages);
+
+        Thread.sleep(300);
+        err.checkThat(scheduler.getPending().get("retry.test"), is(3));
+        err.checkThat(scheduler.getDelivered(), is(0L));
+
+        // the retries of the domain are coalesced, every attempt sends all messages over one connection
+        try (ServerSocket server = new ServerSocket(port)) {
+            int received = serveDmtp(server);
+            err.checkThat(received, is(3));
+        }
+
+        while (scheduler.getDelivered() < 3) Thread.sleep(20);
+        err.checkThat(scheduler.getPending().isEmpty(), is(true));
+        err.checkThat(scheduler.getExpired(), is(0L));
+    }
+
+    @Test(timeout = 15000)
+    public void unreachableServer_messagesExpireAfterMaxAge() throws Exception {
+        int port = freePort();
+        scheduler.configure(50, 100, 300);
+
+        scheduler.schedule(new Domain("expire.test", "127.0.0.1", port), List.of(message("expire")));
+
+        while (scheduler.getExpired() < 1) Thread.sleep(20);
+        err.checkThat(scheduler.getRetried() >= 2, is(true));
+        err.checkThat(scheduler.getPending().isEmpty(), is(true));
+    }
+
+    @Test(timeout = 15000)
+    public void failingAttempt_isRetriedAndExpiresWithoutBlockingTheDomain() throws Exception {
+        scheduler.configure(50, 50, 300);
+
+        // the server answers, but writing a message without recipients fails inside the attempt
+        try (ServerSocket server = new ServerSocket(0)) {
+            Thread acceptor = new Thread(() -> {
+                while (!server.isClosed()) {
+                    try {
+                        Socket socket = server.accept();
+                        new PrintWriter(socket.getOutputStream(), true).println("ok DMTP");
+                    } catch (Exception e) {
+                        return;
+                    }
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            Domain domain = new Domain("broken.test", "127.0.0.1", server.getLocalPort());
+            scheduler.schedule(domain, List.of(new ErrorMessage(null, "mailer@[127.0.0.1]", "broken", "data")));
+
+            while (scheduler.getExpired() < 1) Thread.sleep(20);
+            err.checkThat(scheduler.getRetried() >= 2, is(true));
+            err.checkThat(scheduler.getPending().isEmpty(), is(true));
+            err.checkThat(scheduler.getBacklog().getDepth(), is(0));
+        }
+
+        // the domain is retried again afterwards
+        long retried = scheduler.getRetried();
+        scheduler.schedule(new Domain("broken.test", "127.0.0.1", freePort()), List.of(message("after")));
+        while (scheduler.getRetried() == retried) Thread.sleep(20);
+    }
+
+    @Test(timeout = 15000)
+    public void fullBacklog_bouncesFurtherMessages() throws Exception {
+        scheduler.configure(5000, 5000, 60000, 2);
+
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < 3; i++) messages.add(message("backlog " + i));
+        scheduler.schedule(new Domain("backlog.test", "127.0.0.1", freePort()), messages);
+
+        err.checkThat(scheduler.getPending().get("backlog.test"), is(2));
+        err.checkThat(scheduler.getBacklog().getDepth(), is(2));
+        err.checkThat(scheduler.getBacklog().getRejected(), is(1L));
+    }
+
+    private static Message message(String subject) {
+        return new ErrorMessage(new ArrayList<>(List.of("trillian@retry.test")), "mailer@[127.0.0.1]", subject, "data");
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // accepts one DMTP connection, answers every command with ok and returns the number of received messages
+    private static int serveDmtp(ServerSocket server) throws Exception {
+        int received = 0;
+        try (Socket socket = server.accept()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            out.println("ok DMTP");
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                out.println(line.startsWith("to ") ? "ok 1" : "ok");
+                if (line.equals("send") && ++received == 3) break;
+            }
+        }
+        return received;
+    }
+}
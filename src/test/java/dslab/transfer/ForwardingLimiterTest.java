@@ -0,0 +1,60 @@
+package dslab.transfer;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import org.junit.Test;
+
+import dslab.TestBase;
+
+public class ForwardingLimiterTest extends TestBase {
+
+    @Test(timeout = 5000)
+    public void fullQueue_rejectsWithoutWaiting() {
+        ForwardingLimiter limiter = new ForwardingLimiter(2, 1000);
+
+        err.checkThat(limiter.acquire(false), is(true));
+        err.checkThat(limiter.acquire(false), is(true));
+        err.checkThat(limiter.getDepth(), is(2));
+
+        err.checkThat(limiter.acquire(false), is(false));
+        err.checkThat(limiter.getRejected(), is(1L));
+
+        limiter.release(1);
+        err.checkThat(limiter.getDepth(), is(1));
+        err.checkThat(limiter.acquire(false), is(true));
+        err.checkThat(limiter.getAccepted(), is(3L));
+    }
+
+    @Test(timeout = 5000)
+    public void fullQueue_delaysSenderUntilSlotIsFreed() throws Exception {
+        ForwardingLimiter limiter = new ForwardingLimiter(1, 3000);
+        limiter.acquire(false);
+
+        Thread forwarder = new Thread(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                return;
+            }
+            limiter.release(1);
+        });
+        forwarder.start();
+
+        err.checkThat(limiter.acquire(true), is(true));
+        err.checkThat(limiter.getDelayed(), is(1L));
+        err.checkThat(limiter.getRejected(), is(0L));
+        err.checkThat(limiter.getMaxWaitMillis() >= 100, is(true));
+        forwarder.join();
+    }
+
+    @Test(timeout = 5000)
+    public void fullQueue_rejectsAfterWaitTime() {
+        ForwardingLimiter limiter = new ForwardingLimiter(1, 100);
+        limiter.acquire(false);
+
+        err.checkThat(limiter.acquire(true), is(false));
+        err.checkThat(limiter.getDelayed(), is(1L));
+        err.checkThat(limiter.getRejected(), is(1L));
+        err.checkThat(limiter.getWaitMillis() >= 90, is(true));
+    }
+}
@@ -0,0 +1,145 @@
+package dslab.transfer;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.FakeMailboxServer;
+import dslab.FakeNameserver;
+import dslab.TestBase;
+import dslab.dns.DNSSingleton;
+import dslab.entity.Message;
+import dslab.protocol.dmtp.DMTPConnectionPool;
+import dslab.util.Config;
+
+public class ForwardingStageTest extends TestBase {
+
+    private FakeMailboxServer mailbox;
+    private FakeNameserver nameserver;
+    private ForwardingStage stage;
+
+    @Before
+    public void setUp() throws Exception {
+        mailbox = new FakeMailboxServer();
+        nameserver = new FakeNameserver(freePort());
+        nameserver.register("earth.planet", "127.0.0.1:" + mailbox.domain("earth.planet").getPort());
+
+        DNSSingleton dns = DNSSingleton.getInstance();
+        dns.setup("localhost", nameserver.getRegistryPort(), FakeNameserver.ROOT_ID);
+        dns.setupCache(1024, 60000, 5000);
+        dns.setRecursive(true);
+
+        // a fresh background pool without a stage of its own, the stage under test hands its deliveries to it
+        Config config = new Config("transfer-1");
+        config.setProperty("forwarding.batch.size", 0);
+        BackgroundTasksSingleton.getInstance().setup(config);
+
+        DMTPConnectionPool.getInstance().setup(4, 30000, true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (stage != null) stage.shutdown();
+        DNSSingleton.getInstance().setRecursive(false);
+        nameserver.close();
+        mailbox.close();
+    }
+
+    @Test(timeout = 10000)
+    public void batch_isSentToTheDomainOverOneConnection() throws Exception {
+        stage = new ForwardingStage(64, 50);
+        stage.start();
+
+        for (int i = 0; i < 5; i++) stage.enqueue(message("trillian@earth.planet", "batched " + i), null);
+
+        while (mailbox.getMessages() < 5) Thread.sleep(20);
+        err.checkThat(mailbox.getConnections(), is(1));
+        err.checkThat(nameserver.getResolveCalls(), is(1));
+    }
+
+    @Test(timeout = 10000)
+    public void shutdown_forwardsQueuedMessages() throws Exception {
+        // the batch would linger far longer than the test runs
+        stage = new ForwardingStage(64, 60000);
+        stage.start();
+
+        for (int i = 0; i < 3; i++) stage.enqueue(message("trillian@earth.planet", "queued " + i), null);
+        Thread.sleep(100);
+        stage.shutdown();
+
+        while (mailbox.getMessages() < 3) Thread.sleep(20);
+        err.checkThat(mailbox.getSubjects().size(), is(3));
+    }
+
+    @Test(timeout = 10000)
+    public void unreachableNameserver_bouncesMessageToSender() throws Exception {
+        nameserver.breakDomain("univer.ze");
+        stage = new ForwardingStage(64, 10);
+        stage.start();
+
+        stage.enqueue(message("zaphod@univer.ze", "lost"), null);
+
+        // the error message goes back to the sender in earth.planet
+        while (mailbox.getMessages() < 1) Thread.sleep(20);
+        err.checkThat(mailbox.getSubjects(), is(List.of("Error delivering message!")));
+    }
+
+    @Test(timeout = 10000)
+    public void rejectedDelivery_isDeliveredByTheStageAndFreesTheSlots() throws Exception {
+        ForwardingLimiter limiter = new ForwardingLimiter(10, 0);
+        stage = new ForwardingStage(64, 10);
+        stage.start();
+
+        // the pool rejects every task from now on, the next setup starts a new one
+        BackgroundTasksSingleton.getInstance().shutdown();
+
+        for (int i = 0; i < 3; i++) {
+            limiter.acquire(false);
+            stage.enqueue(message("trillian@earth.planet", "rejected " + i), limiter);
+        }
+
+        while (mailbox.getMessages() < 3) Thread.sleep(20);
+        while (limiter.getDepth() > 0) Thread.sleep(20);
+        err.checkThat(limiter.getDepth(), is(0));
+    }
+
+    @Test(timeout = 10000)
+    public void bounces_haveACapOfTheirOwn() throws Exception {
+        Config config = new Config("transfer-1");
+        config.setProperty("forwarding.batch.size", 0);
+        config.setProperty("forwarding.bounce.capacity", 2);
+        BackgroundTasksSingleton tasks = BackgroundTasksSingleton.getInstance();
+        tasks.setup(config);
+
+        // all bounce slots are taken, the next bounce is dropped instead of queued
+        ForwardingLimiter bounces = tasks.getBounceLimiter();
+        bounces.acquire(false);
+        bounces.acquire(false);
+        tasks.forward(message("trillian@earth.planet", "dropped"));
+        err.checkThat(bounces.getRejected(), is(1L));
+        err.checkThat(tasks.getLimiter().getDepth(), is(0));
+
+        bounces.release(2);
+        tasks.forward(message("trillian@earth.planet", "bounced"));
+        while (mailbox.getMessages() < 1) Thread.sleep(20);
+        while (bounces.getDepth() > 0) Thread.sleep(20);
+        err.checkThat(mailbox.getSubjects(), is(List.of("bounced")));
+    }
+
+    private static Message message(String recipient, String subject) {
+        ArrayList<String> recipients = new ArrayList<>(List.of(recipient));
+        return new Message(null, recipients, "arthur@earth.planet", subject, "data", "hash");
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package dslab.transfer;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.TestBase;
+import dslab.entity.Message;
+
+public class MonitoringSingletonTest extends TestBase {
+
+    private static final int ROUNDS = 20;
+    private static final int THREADS = 4;
+    private static final int MESSAGES_PER_THREAD = 20;
+
+    private DatagramSocket receiver;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        receiver.setReceiveBufferSize(1024 * 1024);
+        receiver.setSoTimeout(2000);
+    }
+
+    @After
+    public void tearDown() {
+        receiver.close();
+    }
+
+    @Test(timeout = 60000)
+    public void shutdownWhileSending_losesNoCounts() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            MonitoringSingleton monitoring = new MonitoringSingleton();
+            monitoring.startSocket("127.0.0.1", receiver.getLocalPort(), "127.0.0.1", 42, 5);
+
+            // the senders and the shutdown start together, some messages are counted before and some after it
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> senders = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                Thread sender = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < MESSAGES_PER_THREAD; i++) monitoring.sendMonitoringPacket(message());
+                });
+                sender.start();
+                senders.add(sender);
+            }
+
+            start.countDown();
+            monitoring.shutdown();
+            for (Thread sender : senders) sender.join();
+
+            err.checkThat("round " + round, receive(THREADS * MESSAGES_PER_THREAD), is((long) THREADS * MESSAGES_PER_THREAD));
+        }
+    }
+
+    // sums the counts of the received packets until the expected number arrived or nothing arrives anymore
+    private long receive(long expected) throws Exception {
+        byte[] buffer = new byte[1024];
+        long received = 0;
+        while (received < expected) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                receiver.receive(packet);
+            } catch (SocketTimeoutException e) {
+                break;
+            }
+
+            for (String line : new String(buffer, 0, packet.getLength(), StandardCharsets.UTF_8).split("\n")) {
+                String[] parts = line.split(" ");
+                received += parts.length == 3 ? Long.parseLong(parts[2]) : 1;
+            }
+        }
+        return received;
+    }
+
+    private static Message message() {
+        ArrayList<String> recipients = new ArrayList<>();
+        recipients.add("trillian@earth.planet");
+        return new Message(null, recipients, "arthur@earth.planet", "subject", "data", null);
+    }
+}
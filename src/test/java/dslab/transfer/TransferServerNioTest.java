@@ -0,0 +1,127 @@
+package dslab.transfer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.Constants;
+import dslab.Sockets;
+import dslab.TestBase;
+import dslab.util.Config;
+
+/**
+ * Runs the transfer server with listener.mode=nio and checks how the selector based sessions split the received bytes
+ * into lines.
+ */
+public class TransferServerNioTest extends TestBase {
+
+    private String componentId = "transfer-1";
+
+    private int serverPort;
+
+    @Before
+    public void setUp() throws Exception {
+        Config config = new Config(componentId);
+        config.setProperty("listener.mode", "nio");
+        config.setProperty("nio.threads", 1);
+        serverPort = config.getInt("tcp.port");
+
+        new Thread(new TransferServer(componentId, config, in, out)).start();
+        Sockets.waitForSocket("localhost", serverPort, Constants.COMPONENT_STARTUP_WAIT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        in.addLine("shutdown");
+        Thread.sleep(Constants.COMPONENT_TEARDOWN_WAIT);
+    }
+
+    @Test(timeout = 15000)
+    public void commandSplitOverSeveralReads_isHandledAsOneLine() throws Exception {
+        try (Socket socket = new Socket("localhost", serverPort)) {
+            BufferedReader reader = reader(socket);
+            OutputStream writer = socket.getOutputStream();
+            err.checkThat(reader.readLine(), is("ok DMTP"));
+
+            writer.write(bytes("be"));
+            writer.flush();
+            Thread.sleep(200);
+            writer.write(bytes("gin\r\nfrom trillian@earth.pla"));
+            writer.flush();
+            Thread.sleep(200);
+            writer.write(bytes("net\n"));
+            writer.flush();
+
+            err.checkThat(reader.readLine(), is("ok"));
+            err.checkThat(reader.readLine(), is("ok"));
+        }
+    }
+
+    @Test(timeout = 15000)
+    public void pipelinedCommands_areAnsweredInOrder() throws Exception {
+        try (Socket socket = new Socket("localhost", serverPort)) {
+            BufferedReader reader = reader(socket);
+            err.checkThat(reader.readLine(), is("ok DMTP"));
+
+            // the whole message in a single write
+            socket.getOutputStream().write(bytes("begin\nfrom trillian@earth.planet\nto arthur@earth.planet\n"
+                    + "subject hello\ndata hello from junit\nsend\nquit\n"));
+            socket.getOutputStream().flush();
+
+            String[] expected = {"ok", "ok", "ok 1", "ok", "ok", "ok", "ok bye"};
+            for (String response : expected) {
+                err.checkThat(reader.readLine(), is(response));
+            }
+            err.checkThat(reader.readLine(), nullValue());
+        }
+    }
+
+    @Test(timeout = 15000)
+    public void lineLongerThanMaximum_closesSession() throws Exception {
+        try (Socket socket = new Socket("localhost", serverPort)) {
+            BufferedReader reader = reader(socket);
+            err.checkThat(reader.readLine(), is("ok DMTP"));
+
+            byte[] chunk = new byte[64 * 1024];
+            Arrays.fill(chunk, (byte) 'x');
+            OutputStream writer = socket.getOutputStream();
+            try {
+                for (int written = 0; written <= DMTPChannelSession.MAX_LINE_LENGTH; written += chunk.length) {
+                    writer.write(chunk);
+                }
+                writer.flush();
+            } catch (java.io.IOException e) {
+                // the server may close the connection before everything is written
+            }
+
+            err.checkThat(reader.readLine(), is("error line too long"));
+            err.checkThat(reader.readLine(), nullValue());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroNioThreads_isRejected() {
+        Config config = new Config(componentId);
+        config.setProperty("nio.threads", 0);
+
+        new NioListenerThread(config, null);
+    }
+
+    private static BufferedReader reader(Socket socket) throws Exception {
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -1,5 +1,7 @@
 package dslab.transfer;
 
+import java.io.PrintWriter;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.junit.After;
@@ -68,4 +70,25 @@ public class TransferServerProtocolTest extends TestBase {
         }
     }
 
+    @Test(timeout = 15000)
+    public void pipelinedCommands_areAnsweredInOrder() throws Exception {
+        try (JunitSocketClient client = new JunitSocketClient(serverPort, err)) {
+            client.verify("ok DMTP");
+
+            // all commands of the message in a single write, like a pipelining DMTP client
+            PrintWriter writer = client.getWriter();
+            writer.print("begin\nfrom trillian@earth.planet\nto arthur@earth.planet\nsubject hello\n"
+                    + "data hello from junit\nsend\n");
+            writer.flush();
+
+            client.verify("ok");
+            client.verify("ok");
+            client.verify("ok 1");
+            client.verify("ok");
+            client.verify("ok");
+            client.verify("ok");
+            client.sendAndVerify("quit", "ok bye");
+        }
+    }
+
 }
@@ -0,0 +1,61 @@
+package dslab.util;
+
+import static org.hamcrest.CoreMatchers.is;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import dslab.TestBase;
+
+public class ExecutorFactoryTest extends TestBase {
+
+    @Test(timeout = 5000)
+    public void boundedConnectionExecutor_rejectsConnectionsBeyondThreads() throws Exception {
+        Config config = new Config("transfer-1");
+        config.setProperty("executor.mode", "bounded");
+        config.setProperty("executor.threads", 2);
+
+        ExecutorService executor = ExecutorFactory.newConnectionExecutor(config);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        try {
+            for (int i = 0; i < 2; i++) {
+                executor.submit(() -> {
+                    release.await();
+                    done.countDown();
+                    return null;
+                });
+            }
+
+            boolean rejected = false;
+            try {
+                executor.submit(() -> { });
+            } catch (RejectedExecutionException e) {
+                rejected = true;
+            }
+            err.checkThat(rejected, is(true));
+
+            // once a session is over, its thread takes the next connection
+            release.countDown();
+            done.await();
+            Thread.sleep(50);
+            CountDownLatch next = new CountDownLatch(1);
+            executor.submit(next::countDown);
+            err.checkThat(next.await(1, TimeUnit.SECONDS), is(true));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownMode_isRejected() {
+        Config config = new Config("transfer-1");
+        config.setProperty("executor.mode", "bounde");
+
+        ExecutorFactory.newConnectionExecutor(config);
+    }
+}
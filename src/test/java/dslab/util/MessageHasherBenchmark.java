@@ -0,0 +1,63 @@
+package dslab.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.crypto.Mac;
+
+import dslab.entity.Message;
+
+/**
+ * Compares hashing messages with {@link MessageHasher} to the previous way of reading the key file, creating a new Mac
+ * and joining the fields into one string for every message.
+ * <p>
+ * Run it from the project root, so keys/hmac.key is found:
+ * <pre>java -cp ... dslab.util.MessageHasherBenchmark [messages] [dataLength]</pre>
+ */
+public class MessageHasherBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int dataLength = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ArrayList<String> recipients = new ArrayList<>();
+            recipients.add("trillian@earth.planet");
+            recipients.add("zaphod@univer.ze");
+            messages.add(new Message(null, recipients, "arthur@earth.planet", "subject " + i, "x".repeat(dataLength), null));
+        }
+
+        MessageHasher hasher = new MessageHasher();
+
+        // warm up the JIT for both variants
+        for (int round = 0; round < 3; round++) {
+            runUncached(messages);
+            runCached(hasher, messages);
+        }
+
+        long uncached = runUncached(messages);
+        long cached = runCached(hasher, messages);
+
+        System.out.printf("%d messages with %d characters of data%n", count, dataLength);
+        System.out.printf("key file and Mac per message: %6d ms, %8.2f us/message%n", uncached / 1_000_000, uncached / 1000.0 / count);
+        System.out.printf("MessageHasher:                %6d ms, %8.2f us/message%n", cached / 1_000_000, cached / 1000.0 / count);
+    }
+
+    private static long runCached(MessageHasher hasher, List<Message> messages) {
+        long start = System.nanoTime();
+        for (Message message : messages) hasher.calculateHash(message);
+        return System.nanoTime() - start;
+    }
+
+    private static long runUncached(List<Message> messages) throws Exception {
+        long start = System.nanoTime();
+        for (Message message : messages) {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(Keys.readSecretKey(new File("keys/hmac.key")));
+            mac.doFinal(String.join("\n", message.getSender(), message.getRecipients().toString(), message.getSubject(), message.getData()).getBytes());
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,80 @@
+package dslab.util;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.crypto.Mac;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dslab.TestBase;
+import dslab.entity.Message;
+
+public class MessageHasherTest extends TestBase {
+
+    private File keyFile;
+
+    @Before
+    public void setUp() throws Exception {
+        keyFile = File.createTempFile("hmac", ".key");
+        writeKey("00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff");
+    }
+
+    @After
+    public void tearDown() {
+        keyFile.delete();
+    }
+
+    @Test(timeout = 5000)
+    public void calculateHash_matchesHashOfJoinedFields() throws Exception {
+        MessageHasher hasher = new MessageHasher(keyFile, 0);
+
+        List<Message> messages = Arrays.asList(
+                message("arthur@earth.planet", Arrays.asList("trillian@earth.planet"), "subject", "data"),
+                message("arthur@earth.planet", Arrays.asList("trillian@earth.planet", "zaphod@univer.ze"), "", "d\u00e4t\u00e4 \u2603"),
+                message("arthur@earth.planet", Arrays.asList("trillian@earth.planet"), "long", "x".repeat(100_000))
+        );
+
+        for (Message message : messages) {
+            err.checkThat(hasher.calculateHash(message), is(expectedHash(message)));
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void keyFileChanged_newKeyIsUsed() throws Exception {
+        MessageHasher hasher = new MessageHasher(keyFile, 0);
+        Message message = message("arthur@earth.planet", Arrays.asList("trillian@earth.planet"), "subject", "data");
+
+        byte[] before = hasher.calculateHash(message);
+        err.checkThat(hasher.calculateHash(message), is(before));
+
+        writeKey("ffeeddccbbaa99887766554433221100ffeeddccbbaa99887766554433221100");
+        keyFile.setLastModified(keyFile.lastModified() + 2000);
+
+        byte[] after = hasher.calculateHash(message);
+        err.checkThat(after, not(is(before)));
+        err.checkThat(after, is(expectedHash(message)));
+    }
+
+    private byte[] expectedHash(Message message) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(Keys.readSecretKey(keyFile));
+        return mac.doFinal(String.join("\n", message.getSender(), message.getRecipients().toString(), message.getSubject(), message.getData()).getBytes());
+    }
+
+    private void writeKey(String hex) throws Exception {
+        Files.writeString(keyFile.toPath(), hex);
+    }
+
+    private static Message message(String sender, List<String> recipients, String subject, String data) {
+        return new Message(null, new ArrayList<>(recipients), sender, subject, data, null);
+    }
+}
@@ -0,0 +1,70 @@
+package dslab.util;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+
+import org.junit.Test;
+
+import dslab.TestBase;
+
+public class ResolverCacheTest extends TestBase {
+
+    @Test
+    public void get_returnsCachedValueAndCountsHits() {
+        ResolverCache<String> cache = new ResolverCache<>(10);
+        cache.put("earth.planet", "127.0.0.1:13163", 60000);
+
+        err.checkThat(cache.get("earth.planet").getValue(), is("127.0.0.1:13163"));
+        err.checkThat(cache.get("univer.ze"), nullValue());
+        err.checkThat(cache.getHits(), is(1L));
+        err.checkThat(cache.getMisses(), is(1L));
+    }
+
+    @Test
+    public void put_withNullValue_storesNegativeEntry() {
+        ResolverCache<String> cache = new ResolverCache<>(10);
+        cache.put("mars.planet", null, 60000);
+
+        ResolverCache.Entry<String> entry = cache.get("mars.planet");
+        err.checkThat(entry, notNullValue());
+        err.checkThat(entry.isNegative(), is(true));
+    }
+
+    @Test
+    public void put_withZeroTtl_doesNotCache() {
+        ResolverCache<String> cache = new ResolverCache<>(10);
+        cache.put("earth.planet", "127.0.0.1:13163", 0);
+
+        err.checkThat(cache.size(), is(0));
+    }
+
+    @Test(timeout = 5000)
+    public void get_afterTtl_expiresEntry() throws Exception {
+        ResolverCache<String> cache = new ResolverCache<>(10);
+        cache.put("earth.planet", "127.0.0.1:13163", 50);
+        cache.put("univer.ze", "127.0.0.1:13165", 60000);
+
+        Thread.sleep(100);
+
+        err.checkThat(cache.get("earth.planet"), nullValue());
+        err.checkThat(cache.get("univer.ze"), notNullValue());
+        err.checkThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void put_beyondMaxSize_evictsLeastRecentlyUsed() {
+        ResolverCache<String> cache = new ResolverCache<>(2);
+        cache.put("a", "1", 60000);
+        cache.put("b", "2", 60000);
+
+        // touching "a" makes "b" the least recently used entry
+        cache.get("a");
+        cache.put("c", "3", 60000);
+
+        err.checkThat(cache.size(), is(2));
+        err.checkThat(cache.get("a"), notNullValue());
+        err.checkThat(cache.get("b"), nullValue());
+        err.checkThat(cache.get("c"), notNullValue());
+    }
+}